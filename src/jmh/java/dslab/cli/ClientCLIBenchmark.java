@@ -0,0 +1,75 @@
+package dslab.cli;
+
+import dslab.client.IClient;
+import dslab.config.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and validation of CLI commands. No channel is opened, so every command ends with an error message after
+ * it was parsed.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientCLIBenchmark {
+
+    private static final int COMMANDS = 1000;
+
+    private final IClient client = new IClient() {
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public String getComponentId() {
+            return "client-0";
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+    private final Config config = new Config("client-0");
+    private byte[] input;
+
+    @Setup
+    public void setup() {
+        List<String> commands = List.of(
+                "publish exchange direct key message",
+                "subscribe exchange topic queue key.#",
+                "channel",
+                "publish exchange direct",
+                "unknown command");
+
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < COMMANDS; i++) {
+            lines.append(commands.get(i % commands.size())).append('\n');
+        }
+        input = lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMMANDS)
+    public void parseCommands() {
+        new ClientCLI(client, config, new ByteArrayInputStream(input), OutputStream.nullOutputStream()).run();
+    }
+}
@@ -0,0 +1,116 @@
+package dslab.connection;
+
+import dslab.connection.types.ExchangeType;
+import dslab.mock.NioMessageBroker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips against the in-process {@link NioMessageBroker} on localhost. The broker routes with a single selector
+ * thread, so the numbers are dominated by the client and the loopback network rather than by the broker.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChannelBenchmark {
+
+    private static final String ROUTING_KEY = "benchmark.key";
+    private static final String MESSAGE = "m".repeat(64);
+
+    /**
+     * A broker with a single publishing channel.
+     */
+    @State(Scope.Benchmark)
+    public static class Publisher {
+
+        @Param({"socket", "nio"})
+        private String transport;
+
+        @Param({"false", "true"})
+        private boolean binary;
+
+        NioMessageBroker broker;
+        AbstractChannel publisher;
+
+        @Setup
+        public void setup() throws IOException {
+            broker = new NioMessageBroker(0);
+            publisher = connect(broker, transport, binary);
+            publisher.exchangeDeclare(ExchangeType.FANOUT, "benchmark");
+        }
+
+        @TearDown
+        public void tearDown() {
+            publisher.disconnect();
+            broker.close();
+        }
+    }
+
+    /**
+     * A publisher and a subscribed channel which receives every published message.
+     */
+    @State(Scope.Benchmark)
+    public static class Subscriber extends Publisher {
+
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        AbstractChannel subscriber;
+        Thread subscription;
+
+        @Setup
+        public void subscribe() throws IOException {
+            subscriber = connect(broker, super.transport, super.binary);
+            subscriber.exchangeDeclare(ExchangeType.FANOUT, "benchmark");
+            subscriber.queueBind("benchmark", ROUTING_KEY);
+            subscription = subscriber.subscribe(received::add);
+        }
+
+        @TearDown
+        public void unsubscribe() {
+            subscription.interrupt();
+            subscriber.disconnect();
+        }
+    }
+
+    @Benchmark
+    public boolean publishRoundTrip(Publisher state) {
+        return state.publisher.publish(ROUTING_KEY, MESSAGE);
+    }
+
+    @Benchmark
+    public String deliveryLatency(Subscriber state) throws InterruptedException {
+        CompletableFuture<Boolean> reply = state.publisher.publishAsync(ROUTING_KEY, MESSAGE);
+        String message = state.received.take();
+        reply.join();
+        return message;
+    }
+
+    private static AbstractChannel connect(NioMessageBroker broker, String transport, boolean binary) {
+        AbstractChannel channel = transport.equals("nio")
+                ? new NioChannel("localhost", broker.getPort())
+                : new Channel("localhost", broker.getPort());
+        channel.setBinaryFraming(binary);
+
+        if (!channel.connect()) {
+            throw new IllegalStateException("broker is not reachable");
+        }
+        return channel;
+    }
+}
@@ -0,0 +1,73 @@
+package dslab.connection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of commands and decoding of replies and deliveries, without any I/O.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"16", "1024"})
+    private int messageSize;
+
+    private final CommandEncoder encoder = new CommandEncoder();
+    private final String routingKey = "benchmark.key";
+    private String message;
+    private ByteBuffer[] replies;
+    private ByteBuffer received;
+    private LineDecoder decoder;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        message = "m".repeat(messageSize);
+        replies = new ByteBuffer[]{ascii("ok"), ascii("ok SMQP"), ascii("ok bye"), ascii("error unknown command")};
+
+        // a read buffer with 64 deliveries, as the transport would pass it to the decoder
+        received = ascii((message + "\n").repeat(64));
+        decoder = new LineDecoder(line -> blackhole.consume(line.remaining()));
+    }
+
+    @Benchmark
+    public ByteBuffer encodePublish() {
+        return encoder.clear()
+                .append("publish").append(' ').append(routingKey).append(' ').append(message).append('\n')
+                .frame();
+    }
+
+    @Benchmark
+    public void parseReplies(Blackhole blackhole) {
+        for (ByteBuffer reply : replies) {
+            blackhole.consume(Reply.parse(reply));
+        }
+    }
+
+    @Benchmark
+    public void decodeDeliveries() {
+        decoder.decode(received.position(0));
+    }
+
+    private static ByteBuffer ascii(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -2,6 +2,12 @@ package dslab;
 
 import dslab.client.Client;
 import dslab.client.IClient;
+import dslab.config.Config;
+import dslab.connection.AbstractChannel;
+import dslab.connection.Channel;
+import dslab.connection.ChannelPool;
+import dslab.connection.NioChannel;
+import dslab.connection.ShardedPublisher;
 
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -12,4 +18,66 @@ public class ComponentFactory {
         return new Client(componentId, in, out);
     }
 
+    /**
+     * Creates a channel to the broker with the host and port given by the config keys {@code <broker>.host} and
+     * {@code <broker>.port}. The transport of the channel is chosen with the optional config key
+     * {@code <broker>.transport}: {@code nio} creates a {@link NioChannel}, any other value or a missing key a socket
+     * based {@link Channel}. With {@code <broker>.framing=binary} the channel requests binary framing and falls back to
+     * text if it is refused.
+     *
+     * @param config the config of the client
+     * @param broker the broker to which the channel should be created
+     * @return the channel, which still has to be connected, or null if the broker is not configured
+     */
+    public static AbstractChannel createChannel(Config config, String broker) {
+        String hostKey = broker + ".host";
+        String portKey = broker + ".port";
+
+        if (!config.containsKey(hostKey) || !config.containsKey(portKey)) {
+            return null;
+        }
+        String host = config.getString(hostKey);
+        int port = config.getInt(portKey);
+
+        String transportKey = broker + ".transport";
+        boolean nio = config.containsKey(transportKey) && config.getString(transportKey).equalsIgnoreCase("nio");
+
+        String framingKey = broker + ".framing";
+        boolean binary = config.containsKey(framingKey) && config.getString(framingKey).equalsIgnoreCase("binary");
+
+        AbstractChannel channel = nio ? new NioChannel(host, port) : new Channel(host, port);
+        channel.setBinaryFraming(binary);
+        return channel;
+    }
+
+    /**
+     * Creates a pool of connected channels keyed by the broker ids of the config, e.g. {@code broker-0}. Each channel
+     * is created like by {@link #createChannel(Config, String)}.
+     *
+     * @param config  the config of the client
+     * @param options the sizes and timeouts of the pool
+     * @return the pool, which connects channels once they are prewarmed or borrowed
+     */
+    public static ChannelPool createChannelPool(Config config, ChannelPool.Options options) {
+        return new ChannelPool(broker -> createChannel(config, broker), options);
+    }
+
+    /**
+     * Creates a publisher which spreads the publishes to the broker over several channels by routing key. The number
+     * of channels is given by the optional config key {@code <broker>.shards}, {@link ShardedPublisher#DEFAULT_SHARDS}
+     * if it is missing. Each channel is created like by {@link #createChannel(Config, String)}.
+     *
+     * @param config the config of the client
+     * @param broker the broker to which the channels should be created
+     * @return the publisher, which still has to be connected, or null if the broker is not configured
+     */
+    public static ShardedPublisher createShardedPublisher(Config config, String broker) {
+        if (!config.containsKey(broker + ".host") || !config.containsKey(broker + ".port")) {
+            return null;
+        }
+
+        String shardsKey = broker + ".shards";
+        int shards = config.containsKey(shardsKey) ? config.getInt(shardsKey) : ShardedPublisher.DEFAULT_SHARDS;
+        return new ShardedPublisher(shards, () -> createChannel(config, broker));
+    }
 }
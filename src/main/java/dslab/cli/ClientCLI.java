@@ -1,9 +1,12 @@
 package dslab.cli;
 
+import dslab.ComponentFactory;
 import dslab.client.Client;
 import dslab.client.IClient;
 import dslab.config.Config;
+import dslab.connection.AbstractChannel;
 import dslab.connection.Channel;
+import dslab.connection.IChannel;
 import dslab.connection.Subscription;
 import dslab.connection.types.ExchangeType;
 
@@ -15,7 +18,7 @@ import java.util.Scanner;
 
 public class ClientCLI implements IClientCLI {
 
-    private Channel channel;
+    private IChannel channel;
     private final IClient client;
     private final Config config;
     private final InputStream in;
@@ -36,7 +39,8 @@ public class ClientCLI implements IClientCLI {
             printPrompt();
 
             if (!scanner.hasNextLine()) {
-                continue;
+                // input stream was closed, e.g. by shutdown
+                return;
             }
 
             String input = scanner.nextLine();
@@ -177,28 +181,25 @@ public class ClientCLI implements IClientCLI {
 
     /**
      * A channel is an instance which is used to multiplex connections on a single TCP connection.
-     * Please read the documentation of the {@link Channel} class for more information.
+     * Please read the documentation of the {@link Channel} class for more information. Several channels on one TCP
+     * connection are created by a {@link dslab.connection.Connection}.
+     * The transport and framing of the channel are configured per broker, see
+     * {@link ComponentFactory#createChannel(Config, String)}.
      * Attention should be paid if the channel is already connected to a broker, it should be disconnected first.
      *
      * @param broker the broker to which the channel should be created
      * @return the channel to which a connection is established with the specified broker
      */
-    private Channel createChannel(String broker) {
+    private IChannel createChannel(String broker) {
         if (channel != null){
             channel.disconnect();
         }
 
-        String hostKey = broker + ".host";
-        String portKey = broker + ".port";
-
-        if (!config.containsKey(hostKey) || !config.containsKey(portKey)) {
+        AbstractChannel c = ComponentFactory.createChannel(config, broker);
+        if (c == null) {
             printStream.println("error: could not create channel");
             return null;
         }
-        String host = config.getString(broker + ".host");
-        int port = config.getInt(broker + ".port");
-
-        Channel c = new Channel(host, port);
         if (!c.connect()){
             printStream.println("error: could not connect to channel");
             return null;
@@ -1,18 +1,22 @@
 package dslab.client;
 
+import com.sun.net.httpserver.HttpServer;
 import dslab.ComponentFactory;
 import dslab.cli.ClientCLI;
 import dslab.config.Config;
+import dslab.connection.metrics.MetricsRegistry;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 
 public class Client implements IClient {
     private final String componentId;
     private ClientCLI cli;
     private final InputStream in;
     private final OutputStream out;
+    private HttpServer metricsServer;
 
     public Client(String componentId, InputStream in, OutputStream out) {
         this.componentId = componentId;
@@ -20,9 +24,22 @@ public class Client implements IClient {
         this.out = out;
     }
 
+    /**
+     * Runs the CLI. If the config contains the optional key {@code metrics.port}, the metrics of all channels are
+     * served in the OpenMetrics text format at {@code http://<host>:<metrics.port>/metrics} until shutdown.
+     */
     @Override
     public void run() {
-        cli = new ClientCLI(this, new Config(componentId), in, out);
+        Config config = new Config(componentId);
+        if (config.containsKey("metrics.port")) {
+            try {
+                metricsServer = MetricsRegistry.getDefault()
+                        .startHttpServer(new InetSocketAddress(config.getInt("metrics.port")));
+            } catch (IOException e) {
+                System.err.println("error: could not start the metrics endpoint: " + e.getMessage());
+            }
+        }
+        cli = new ClientCLI(this, config, in, out);
         cli.run();
     }
 
@@ -33,6 +50,9 @@ public class Client implements IClient {
 
     @Override
     public void shutdown() {
+        if (metricsServer != null) {
+            metricsServer.stop(0);
+        }
         try{
             in.close();
             out.close();
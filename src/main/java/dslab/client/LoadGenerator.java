@@ -0,0 +1,298 @@
+package dslab.client;
+
+import dslab.ComponentFactory;
+import dslab.config.Config;
+import dslab.connection.AbstractChannel;
+import dslab.connection.types.ExchangeType;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generates load on a broker of the client config to measure the capacity of broker and client.
+ * <p>
+ * N publisher channels send messages to a fanout exchange at a fixed total rate, M subscriber channels each receive
+ * every message on their own queue. Every message starts with the time it was scheduled to be sent and the time it was
+ * actually sent, followed by padding up to the message size. The subscribers record the end-to-end latency in two
+ * histograms:
+ * <ul>
+ *     <li>corrected: from the scheduled send time. A publisher which falls behind, e.g. because the broker stalls,
+ *     sends the backlog at once and the time the messages waited to be sent is counted as well. This corrects the
+ *     coordinated omission of closed loop measurements.</li>
+ *     <li>uncorrected: from the actual send time, as most load generators measure it.</li>
+ * </ul>
+ * The throughput and the percentiles are printed every second and for the whole run.
+ */
+public class LoadGenerator {
+
+    public static final String USAGE = "usage: LoadGenerator <componentId> <broker> [-publishers n] [-subscribers n]"
+            + " [-rate messages/s] [-size bytes] [-duration seconds]";
+
+    private static final String ROUTING_KEY = "load";
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(10);
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(5);
+
+    private final Config config;
+    private final String broker;
+    private final Options options;
+    private final PrintStream out;
+    private final String exchange = "load-" + UUID.randomUUID();
+    private final Recorder corrected = new Recorder(HIGHEST_LATENCY, 3);
+    private final Recorder uncorrected = new Recorder(HIGHEST_LATENCY, 3);
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    // timestamps in the messages are relative to it, as System.nanoTime() may be negative
+    private final long origin = System.nanoTime();
+
+    public LoadGenerator(Config config, String broker, Options options, PrintStream out) {
+        this.config = config;
+        this.broker = broker;
+        this.options = options;
+        this.out = out;
+    }
+
+    /**
+     * Connects the channels, generates load for the configured duration and waits up to {@link #DRAIN_TIMEOUT} for the
+     * outstanding deliveries.
+     *
+     * @return the report of the whole run
+     * @throws IllegalStateException if a channel cannot be connected or subscribed
+     * @throws InterruptedException  if the thread is interrupted while generating load
+     */
+    public Report run() throws InterruptedException {
+        List<AbstractChannel> channels = new ArrayList<>();
+        try {
+            for (int i = 0; i < options.subscribers(); i++) {
+                AbstractChannel subscriber = connect(channels);
+                subscriber.queueBind(exchange + "-" + i, ROUTING_KEY);
+                if (subscriber.subscribeBytes(this::onMessage) == null) {
+                    throw new IllegalStateException("could not subscribe to " + broker);
+                }
+            }
+
+            List<Thread> publishers = new ArrayList<>();
+            for (int i = 0; i < options.publishers(); i++) {
+                publishers.add(new Thread(publisher(connect(channels), i), "load-publisher-" + i));
+            }
+
+            Histogram totalCorrected = new Histogram(HIGHEST_LATENCY, 3);
+            Histogram totalUncorrected = new Histogram(HIGHEST_LATENCY, 3);
+            long start = System.nanoTime();
+            publishers.forEach(Thread::start);
+
+            long lastReceived = 0;
+            for (int second = 1; publishers.stream().anyMatch(Thread::isAlive); second++) {
+                long next = start + TimeUnit.SECONDS.toNanos(second);
+                for (Thread publisher : publishers) {
+                    TimeUnit.NANOSECONDS.timedJoin(publisher, next - System.nanoTime());
+                }
+                Histogram interval = corrected.getIntervalHistogram();
+                totalCorrected.add(interval);
+                totalUncorrected.add(uncorrected.getIntervalHistogram());
+                long receivedNow = received.get();
+                out.printf("%4ds received %8d msg/s  p50 %8.3f ms  p99 %8.3f ms  max %8.3f ms%n", second,
+                        receivedNow - lastReceived, millis(interval.getValueAtPercentile(50)),
+                        millis(interval.getValueAtPercentile(99)), millis(interval.getMaxValue()));
+                lastReceived = receivedNow;
+            }
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+            long expected = sent.get() * options.subscribers();
+            long deadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+            while (received.get() < expected && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            totalCorrected.add(corrected.getIntervalHistogram());
+            totalUncorrected.add(uncorrected.getIntervalHistogram());
+
+            Report report = new Report(sent.get(), failed.get(), received.get(), elapsed,
+                    totalCorrected, totalUncorrected);
+            report.print(out, options);
+            return report;
+        } finally {
+            channels.forEach(AbstractChannel::disconnect);
+        }
+    }
+
+    private AbstractChannel connect(List<AbstractChannel> channels) {
+        AbstractChannel channel = ComponentFactory.createChannel(config, broker);
+        if (channel == null || !channel.connect()) {
+            throw new IllegalStateException("could not connect to " + broker);
+        }
+        channels.add(channel);
+        channel.exchangeDeclare(ExchangeType.FANOUT, exchange);
+        return channel;
+    }
+
+    /**
+     * Sends the share of the total rate of one publisher until the duration elapsed. The publishers start with an
+     * offset to each other, so the messages are evenly spread.
+     */
+    private Runnable publisher(AbstractChannel channel, int index) {
+        long interval = TimeUnit.SECONDS.toNanos(1) * options.publishers() / options.rate();
+        return () -> {
+            StringBuilder message = new StringBuilder(options.messageSize());
+            long start = System.nanoTime() + interval * index / options.publishers();
+            long end = start + options.duration().toNanos();
+
+            for (long intended = start; intended < end; intended += interval) {
+                long wait;
+                while ((wait = intended - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+
+                message.setLength(0);
+                message.append(intended - origin).append(':').append(System.nanoTime() - origin).append(':');
+                while (message.length() < options.messageSize()) {
+                    message.append('x');
+                }
+                sent.incrementAndGet();
+                channel.publishAsync(ROUTING_KEY, message.toString()).whenComplete((ok, e) -> {
+                    if (ok == null || !ok) {
+                        failed.incrementAndGet();
+                    }
+                });
+            }
+        };
+    }
+
+    private void onMessage(ByteBuffer message) {
+        long now = System.nanoTime() - origin;
+        int position = message.position();
+        long intended = 0;
+        byte b;
+        while ((b = message.get(position++)) != ':') {
+            intended = intended * 10 + (b - '0');
+        }
+        long actual = 0;
+        while ((b = message.get(position++)) != ':') {
+            actual = actual * 10 + (b - '0');
+        }
+
+        corrected.recordValue(Math.min(now - intended, HIGHEST_LATENCY));
+        uncorrected.recordValue(Math.min(now - actual, HIGHEST_LATENCY));
+        received.incrementAndGet();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * Runs the load generator with the given arguments, see {@link #USAGE}.
+     *
+     * @param args the component id of the client config, the broker and the options
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.err.println(USAGE);
+            return;
+        }
+
+        Options options;
+        try {
+            options = Options.parse(args, 2);
+        } catch (IllegalArgumentException e) {
+            System.err.println("error: " + e.getMessage());
+            System.err.println(USAGE);
+            return;
+        }
+        new LoadGenerator(new Config(args[0]), args[1], options, System.out).run();
+    }
+
+    /**
+     * @param publishers  the number of publishing channels
+     * @param subscribers the number of subscribed channels, each receives every message
+     * @param rate        the total number of messages sent per second
+     * @param messageSize the size of a message in bytes, smaller messages are extended to hold the timestamps
+     * @param duration    the time to generate load
+     */
+    public record Options(int publishers, int subscribers, int rate, int messageSize, Duration duration) {
+
+        public Options {
+            if (publishers < 1 || subscribers < 0 || rate < publishers || messageSize < 1 || duration.isNegative()) {
+                throw new IllegalArgumentException("invalid options: %d publishers, %d subscribers, %d msg/s, %d bytes"
+                        .formatted(publishers, subscribers, rate, messageSize));
+            }
+        }
+
+        /**
+         * Parses the options, missing ones keep their default: 1 publisher, 1 subscriber, 1000 messages/s, 64 bytes
+         * and 10 seconds.
+         *
+         * @param args   the command line arguments
+         * @param offset the index of the first option
+         * @return the parsed options
+         * @throws IllegalArgumentException if an option is unknown or has no valid value
+         */
+        public static Options parse(String[] args, int offset) {
+            int publishers = 1;
+            int subscribers = 1;
+            int rate = 1000;
+            int messageSize = 64;
+            int seconds = 10;
+
+            for (int i = offset; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("missing value of " + args[i]);
+                }
+                int value;
+                try {
+                    value = Integer.parseInt(args[i + 1]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid value of " + args[i] + ": " + args[i + 1]);
+                }
+                switch (args[i]) {
+                    case "-publishers" -> publishers = value;
+                    case "-subscribers" -> subscribers = value;
+                    case "-rate" -> rate = value;
+                    case "-size" -> messageSize = value;
+                    case "-duration" -> seconds = value;
+                    default -> throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+            }
+            return new Options(publishers, subscribers, rate, messageSize, Duration.ofSeconds(seconds));
+        }
+    }
+
+    /**
+     * The result of a run, latencies are in nanoseconds.
+     *
+     * @param sent        the number of published messages
+     * @param failed      the number of publishes the broker did not acknowledge
+     * @param received    the number of messages received by all subscribers
+     * @param elapsed     the time the publishers ran
+     * @param corrected   the latencies from the scheduled send times
+     * @param uncorrected the latencies from the actual send times
+     */
+    public record Report(long sent, long failed, long received, Duration elapsed, Histogram corrected,
+                         Histogram uncorrected) {
+
+        void print(PrintStream out, Options options) {
+            double seconds = elapsed.toNanos() / 1e9;
+            out.printf("%d publishers, %d subscribers, %d bytes, target %d msg/s, %.1f s%n", options.publishers(),
+                    options.subscribers(), options.messageSize(), options.rate(), seconds);
+            out.printf("sent %d (%.0f msg/s), failed %d, received %d (%.0f msg/s)%n", sent, sent / seconds, failed,
+                    received, received / seconds);
+            out.printf("%-12s %10s %10s %10s %10s%n", "latency ms", "p50", "p99", "p99.9", "max");
+            print(out, "corrected", corrected);
+            print(out, "uncorrected", uncorrected);
+        }
+
+        private static void print(PrintStream out, String name, Histogram histogram) {
+            out.printf("%-12s %10.3f %10.3f %10.3f %10.3f%n", name, millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()));
+        }
+    }
+}
@@ -0,0 +1,1088 @@
+package dslab.connection;
+
+import dslab.connection.metrics.ChannelMetrics;
+import dslab.connection.metrics.MetricsRegistry;
+import dslab.connection.types.ExchangeType;
+import dslab.connection.types.WaitStrategy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Implements the SMQP protocol on top of a transport provided by the subclass.
+ * <p>
+ * Any number of threads may send commands concurrently without locking. Every command is queued together with its
+ * pending reply future in a {@link MpscQueue}. The thread which finds no other thread writing becomes the writer: it
+ * encodes what is queued, also by other threads, into one frame of up to {@value #MAX_COALESCED_BYTES} bytes and
+ * writes it with a single call. If more commands are left, it hands them to a writer thread which writes until the
+ * queue is empty, so no caller is kept writing for others. The other threads return right away. The broker answers
+ * commands in the order they were sent, therefore every reply received from the broker completes the oldest pending
+ * reply. A single thread per transport reads everything the broker sends and classifies it, so one channel may
+ * publish and consume at the same time. Binary frames carry their kind in the opcode. Text lines of a subscribed
+ * channel are replies if they have the form of one, see {@link Reply#isReply(ByteBuffer)}, all other lines are
+ * messages of the subscription.
+ * <p>
+ * Messages are handed from the thread reading the transport to the {@link Subscription} thread through a bounded
+ * {@link SpscRingBuffer}. The reader keeps draining the socket while the callback runs, until the prefetch buffer is
+ * full. Then the channel pauses reading instead of blocking the reader, see {@link #isReadPaused()}, and resumes once
+ * the callback has consumed half of the buffer. While replies are pending it keeps reading, so a callback may send
+ * commands on its own channel, and buffers further messages beyond the prefetch depth. Messages which arrive while no
+ * subscription is active are discarded. Messages are buffered as bytes in
+ * direct buffers of a {@link BufferPool}, they are only decoded to Strings if they are consumed through the String
+ * based methods.
+ * <p>
+ * Exchange, queue and binding declarations which would be no-ops on the current connection are skipped, see
+ * {@link TopologyCache}.
+ * <p>
+ * With a {@link RecoveryPolicy}, a channel whose connection is lost reconnects in the background, replays the
+ * recorded declarations and subscription and keeps delivering to the same callback. Requests fail while the channel
+ * is recovering.
+ * <p>
+ * With {@link #setBinaryFraming(boolean)}, the channel asks the broker for length-prefixed binary frames right after
+ * the greeting and keeps using text lines if the broker refuses, see {@link FrameDecoder}.
+ * <p>
+ * Every channel records its behaviour in {@link ChannelMetrics}, which are exposed by the
+ * {@link MetricsRegistry#getDefault() default registry} while the channel is connected.
+ */
+public abstract class AbstractChannel implements IChannel {
+
+    /**
+     * Maximum time a {@link #getFromSubscription()} call waits for a message. This bounds how long an interrupted
+     * {@link Subscription} keeps running. Messages are delivered as soon as they arrive.
+     */
+    static final int POLL_TIMEOUT_MS = 50;
+
+    /**
+     * Default number of publishes that {@link #publishPipelined(String, List)} keeps in flight.
+     */
+    public static final int DEFAULT_PUBLISH_WINDOW = 64;
+
+    /**
+     * Default number of received messages which are buffered for the subscription callback.
+     */
+    public static final int DEFAULT_PREFETCH = 1024;
+
+    /**
+     * Number of encoded bytes after which the writer writes the frame, even if more commands are queued.
+     */
+    static final int MAX_COALESCED_BYTES = 64 * 1024;
+
+    private volatile boolean closed = true;
+    private int publishWindow = DEFAULT_PUBLISH_WINDOW;
+    private final Queue<PendingReply> pendingReplies = new ConcurrentLinkedQueue<>();
+    private final MpscQueue<PendingReply> writeQueue = new MpscQueue<>();
+    // number of times the queue was signalled since the writer last checked it, the writer is active while not 0
+    private final AtomicInteger writeSignals = new AtomicInteger();
+    private final CommandEncoder encoder = new CommandEncoder();
+    private final TopologyCache topology = new TopologyCache();
+    private volatile SpscRingBuffer<PooledBuffer> deliveries = new SpscRingBuffer<>(DEFAULT_PREFETCH, WaitStrategy.PARK);
+    // messages received while the prefetch buffer is full and replies have to be read, they follow those in the buffer
+    private final Queue<PooledBuffer> overflow = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean readPaused = new AtomicBoolean();
+    private volatile boolean subscribed;
+    // the broker keeps delivering to a connection once it subscribed, even after the subscription thread ended
+    private volatile boolean subscribedOnConnection;
+    private final Session session = new Session();
+    private volatile RecoveryPolicy recoveryPolicy;
+    private volatile boolean established;
+    private volatile Thread recoveryThread;
+    private final List<Duration> recoveryTimes = new CopyOnWriteArrayList<>();
+    private volatile boolean binaryFraming;
+    private volatile boolean binary;
+    private volatile BufferPool bufferPool = BufferPool.getDefault();
+    private final ChannelMetrics metrics;
+    ExchangeType exchangeType;
+    String exchangeName;
+
+    /**
+     * @param broker the address of the broker, which groups the metrics of the channel
+     */
+    protected AbstractChannel(String broker) {
+        metrics = MetricsRegistry.getDefault().newChannel(broker);
+        metrics.setPrefetchDepth(this::getPrefetchCount);
+    }
+
+    /**
+     * Opens the transport to the broker. Afterwards everything received from the broker, starting with the greeting,
+     * has to be passed to a decoder from {@link #newDecoder()} or, if the transport splits the lines itself, to
+     * {@link #onLine(ByteBuffer)}. {@link #onClosed()} has to be called once the transport is closed.
+     *
+     * @throws IOException if the transport cannot be opened
+     */
+    protected abstract void openTransport() throws IOException;
+
+    /**
+     * Writes the frame to the broker. Calls are serialized by the channel, they may come from any thread which sends
+     * commands.
+     *
+     * @param frame the encoded commands, in read mode and backed by an array. The buffer is reused by the channel
+     *              after the call returns.
+     * @throws IOException if the frame cannot be written
+     */
+    protected abstract void write(ByteBuffer frame) throws IOException;
+
+    /**
+     * Closes the transport. Must be safe to call multiple times.
+     */
+    protected abstract void closeTransport();
+
+    /**
+     * Appends what precedes every command of this channel on the wire. Nothing by default.
+     *
+     * @param encoder the encoder of the frame
+     */
+    protected void encodePrefix(CommandEncoder encoder) {
+    }
+
+    /**
+     * Creates a decoder which passes lines or frames, depending on the negotiated framing, to this channel. A new
+     * decoder is needed per opened transport.
+     *
+     * @return the decoder
+     */
+    protected FrameDecoder newDecoder() {
+        return new FrameDecoder(this::onLine, this::onFrame, () -> binary, this::isReadPaused);
+    }
+
+    /**
+     * Tells whether the transport should stop reading, because the prefetch buffer is full. The thread reading the
+     * transport must never block on a full buffer, it would stall every channel it serves. Bytes which were already
+     * received are kept until reading resumes.
+     *
+     * @return true if no more lines or frames should be passed to this channel
+     */
+    protected final boolean isReadPaused() {
+        return readPaused.get();
+    }
+
+    /**
+     * Called once whenever reading is paused or resumed. Resuming may happen on any thread, the transport has to wake
+     * up its reader. Does nothing by default.
+     *
+     * @param paused true if reading was paused, false if it was resumed
+     */
+    protected void readPausedChanged(boolean paused) {
+    }
+
+    private void pauseReading() {
+        if (readPaused.compareAndSet(false, true)) {
+            readPausedChanged(true);
+            // a command may have been written or the subscription ended concurrently
+            if (!pendingReplies.isEmpty() || !subscribed) {
+                resumeReading();
+            }
+        }
+    }
+
+    private void resumeReading() {
+        if (readPaused.compareAndSet(true, false)) {
+            readPausedChanged(false);
+        }
+    }
+
+    /**
+     * Resumes reading once the subscription has consumed the messages beyond the low-water mark.
+     */
+    private void resumeReadingIfDrained() {
+        if (readPaused.get() && overflow.isEmpty() && deliveries.size() <= deliveries.capacity() / 2) {
+            resumeReading();
+        }
+    }
+
+    /**
+     * @return true if replies of sent commands are still expected
+     */
+    boolean hasPendingReplies() {
+        return !pendingReplies.isEmpty();
+    }
+
+    /**
+     * Handles a line received from the broker.
+     *
+     * @param line a view of the line without the line terminator, only valid during the call
+     */
+    protected void onLine(ByteBuffer line) {
+        // without a subscription every line is a reply, deliveries may arrive in between replies otherwise. The broker
+        // keeps delivering after the subscription thread ended, these messages must not be taken as replies either
+        if (!pendingReplies.isEmpty() && (!(subscribedOnConnection || subscribed) || Reply.isReply(line))) {
+            PendingReply reply = pendingReplies.poll();
+            if (reply != null) {
+                complete(reply, Reply.parse(line));
+            }
+        } else if (subscribed) {
+            deliver(line);
+        }
+    }
+
+    private void complete(PendingReply pending, Reply reply) {
+        if (pending.publish) {
+            if (reply == Reply.OK) {
+                metrics.acknowledged(pending.sentNanos);
+            }
+            SmqpEvents.AckReceived event = new SmqpEvents.AckReceived();
+            if (event.shouldCommit()) {
+                event.exchange = pending.exchange;
+                event.routingKey = pending.first;
+                event.payloadSize = pending.payloadSize();
+                event.roundTripTime = System.nanoTime() - pending.sentNanos;
+                event.acknowledged = reply == Reply.OK;
+                event.commit();
+            }
+        }
+        pending.complete(reply);
+    }
+
+    private void deliver(ByteBuffer message) {
+        int size = message.remaining();
+        PooledBuffer copy = bufferPool.copyOf(message);
+        SpscRingBuffer<PooledBuffer> deliveries = this.deliveries;
+        if (!overflow.isEmpty() || !deliveries.offer(copy)) {
+            overflow.add(copy);
+        }
+        metrics.delivered();
+        SmqpEvents.MessageDelivered event = new SmqpEvents.MessageDelivered();
+        if (event.shouldCommit()) {
+            event.exchange = exchangeName;
+            event.payloadSize = size;
+            event.commit();
+        }
+
+        // replies behind the messages must still be read, e.g. of a publish in the callback
+        if ((!overflow.isEmpty() || deliveries.size() == deliveries.capacity()) && pendingReplies.isEmpty()) {
+            pauseReading();
+        }
+    }
+
+    /**
+     * Handles a binary frame received from the broker. Unlike lines, deliveries are recognised by their opcode.
+     *
+     * @param opcode  the code of the {@link Opcode}
+     * @param payload a view of the payload, only valid during the call
+     */
+    private void onFrame(byte opcode, ByteBuffer payload) {
+        if (opcode == Opcode.REPLY.code()) {
+            PendingReply reply = pendingReplies.poll();
+            if (reply != null) {
+                complete(reply, Reply.parse(payload));
+            }
+        } else if (opcode == Opcode.DELIVERY.code() && subscribed) {
+            deliver(payload);
+        }
+    }
+
+    /**
+     * Handles the end of the transport by failing all pending replies. Starts the recovery if the connection was
+     * lost unexpectedly and a {@link RecoveryPolicy} is set.
+     */
+    protected void onClosed() {
+        boolean recover = established && recoveryPolicy != null;
+        Thread recovering = null;
+        synchronized (recoveryTimes) {
+            // the recovery thread has to exist before the channel is closed, otherwise a subscription may see the
+            // channel closed for good in between and end
+            if (recover && recoveryThread == null) {
+                recovering = new Thread(this::recover, "channel-recovery");
+                recovering.setDaemon(true);
+                recoveryThread = recovering;
+            }
+            closed = true;
+        }
+        topology.clear();
+        failPendingReplies();
+        resumeReading();
+
+        if (recovering != null) {
+            recovering.start();
+        } else if (!recover) {
+            MetricsRegistry.getDefault().unregister(metrics);
+        }
+    }
+
+    /**
+     * Body of the recovery thread. Reconnects with jittered exponential backoff and replays the session.
+     */
+    private void recover() {
+        long start = System.nanoTime();
+        RecoveryPolicy policy = recoveryPolicy;
+
+        for (int attempt = 0; attempt < policy.getMaxAttempts() && established; attempt++) {
+            try {
+                Thread.sleep(policy.backoffMillis(attempt));
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (connect() && replaySession()) {
+                recoveryTimes.add(Duration.ofNanos(System.nanoTime() - start));
+                metrics.reconnected();
+                synchronized (recoveryTimes) {
+                    if (!closed) {
+                        recoveryThread = null;
+                        return;
+                    }
+                }
+                // lost again before the recovery thread was released, onClosed() left the recovery to this thread
+                start = System.nanoTime();
+                attempt = -1;
+                continue;
+            }
+            closed = true;
+            closeTransport();
+        }
+
+        recoveryThread = null;
+        // out of attempts or stopped by disconnect(), the channel stays closed
+        MetricsRegistry.getDefault().unregister(metrics);
+    }
+
+    /**
+     * Interrupts the recovery thread and waits until it has ended, unless it is the calling thread.
+     */
+    private void stopRecovery() {
+        Thread recovering = recoveryThread;
+        if (recovering == null || recovering == Thread.currentThread()) {
+            return;
+        }
+        recovering.interrupt();
+        try {
+            recovering.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean replaySession() {
+        for (Session.QueueBinding binding : session.getBindings()) {
+            if (!exchangeDeclare(binding.exchangeType(), binding.exchangeName())
+                    || !queueBind(binding.queueName(), binding.bindingKey())) {
+                return false;
+            }
+        }
+
+        String subscribedQueue = session.getSubscribedQueue();
+        if (subscribedQueue != null) {
+            subscribedOnConnection = true;
+            if (!selectQueue(subscribedQueue) || request(Opcode.SUBSCRIBE, null, null).join() != Reply.OK) {
+                return false;
+            }
+        }
+
+        ExchangeType exchangeType = session.getExchangeType();
+        return exchangeType == null || exchangeDeclare(exchangeType, session.getExchangeName());
+    }
+
+    private void failPendingReplies() {
+        PendingReply reply;
+        while ((reply = pendingReplies.poll()) != null) {
+            reply.complete(Reply.CLOSED);
+        }
+    }
+
+    @Override
+    public boolean connect() {
+        SmqpEvents.Handshake event = new SmqpEvents.Handshake();
+        event.begin();
+        boolean success = handshake();
+        // the recovery must not re-establish a channel which was disconnected meanwhile
+        if (success && recoveryThread != Thread.currentThread()) {
+            established = true;
+        }
+        if (event.shouldCommit()) {
+            event.broker = metrics.getBroker();
+            event.binary = binary;
+            event.success = success;
+            event.commit();
+        }
+        return success;
+    }
+
+    /**
+     * Opens the transport, waits for the greeting and negotiates the framing.
+     *
+     * @return true if the channel is ready for commands
+     */
+    private boolean handshake() {
+        long start = System.nanoTime();
+        PendingReply greeting = new PendingReply();
+        topology.clear();
+        pendingReplies.clear();
+        pendingReplies.add(greeting);
+        binary = false;
+        subscribedOnConnection = false;
+
+        try {
+            openTransport();
+        } catch (IOException e) {
+            closeTransport();
+            return false;
+        }
+        closed = false;
+
+        if (greeting.join() != Reply.OK_SMQP) {
+            closed = true;
+            closeTransport();
+            return false;
+        }
+
+        if (binaryFraming) {
+            Reply reply = request(Opcode.BINARY, null, null).join();
+            if (reply == Reply.CLOSED) {
+                return false;
+            }
+            // any other reply than ok means the broker only speaks text
+            binary = reply == Reply.OK;
+        }
+        metrics.connected(System.nanoTime() - start);
+        MetricsRegistry.getDefault().register(metrics);
+        return true;
+    }
+
+    /**
+     * Enables binary framing for the next {@link #connect()}. The channel falls back to text framing if the broker
+     * does not support it.
+     *
+     * @param binaryFraming true to request binary framing
+     */
+    public void setBinaryFraming(boolean binaryFraming) {
+        this.binaryFraming = binaryFraming;
+    }
+
+    /**
+     * @return true if the current connection uses binary framing
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @return true if requests of the calling thread may be written to the transport
+     */
+    private boolean isWritable() {
+        Thread recovering = recoveryThread;
+        return !closed && (recovering == null || recovering == Thread.currentThread());
+    }
+
+    /**
+     * Sends the command to the broker without waiting for the reply.
+     *
+     * @param opcode the command
+     * @param first  the first argument, or null
+     * @param second the second argument, or null
+     * @return a future which is completed with the reply, or with {@link Reply#CLOSED} if the connection is closed
+     */
+    private CompletableFuture<Reply> request(Opcode opcode, String first, String second) {
+        return request(opcode, first, second, null);
+    }
+
+    /**
+     * Sends the command to the broker without waiting for the reply. The last argument is either a String or the
+     * remaining bytes of a buffer.
+     *
+     * @param opcode the command
+     * @param first  the first argument, or null
+     * @param second the second argument, or null
+     * @param body   the second argument as bytes, or null
+     * @return a future which is completed with the reply, or with {@link Reply#CLOSED} if the connection is closed
+     */
+    private CompletableFuture<Reply> request(Opcode opcode, String first, String second, ByteBuffer body) {
+        PendingReply reply = new PendingReply(opcode, exchangeName, first, second, copyOf(body));
+        SmqpEvents.PublishSent event = new SmqpEvents.PublishSent();
+        event.begin();
+
+        if (!isWritable()) {
+            reply.complete(Reply.CLOSED);
+            return reply;
+        }
+        if (!isEncodable(reply)) {
+            reply.complete(Reply.OTHER);
+            return reply;
+        }
+        writeQueue.offer(reply);
+        signalWriter();
+
+        if (reply.publish && event.shouldCommit()) {
+            event.exchange = exchangeName;
+            event.routingKey = first;
+            event.payloadSize = reply.payloadSize();
+            event.commit();
+        }
+        return reply;
+    }
+
+    /**
+     * Sends a publish command per message to the broker without waiting for the replies. The commands are queued at
+     * once, so they are usually written together.
+     *
+     * @param routingKeys the routing key of each message
+     * @param messages    the messages
+     * @return one future per message which is completed with the reply, or with {@link Reply#CLOSED} if the
+     * connection is closed
+     */
+    private List<? extends CompletableFuture<Reply>> requestPublishes(List<String> routingKeys, List<String> messages) {
+        List<PendingReply> replies = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            replies.add(new PendingReply(Opcode.PUBLISH, exchangeName, routingKeys.get(i), messages.get(i), null));
+        }
+
+        if (!isWritable()) {
+            replies.forEach(reply -> reply.complete(Reply.CLOSED));
+            return replies;
+        }
+        for (PendingReply reply : replies) {
+            if (isEncodable(reply)) {
+                writeQueue.offer(reply);
+            } else {
+                reply.complete(Reply.OTHER);
+            }
+        }
+        signalWriter();
+
+        for (PendingReply reply : replies) {
+            // the messages of a batch are queued at once, their events have no duration
+            SmqpEvents.PublishSent event = new SmqpEvents.PublishSent();
+            if (event.shouldCommit()) {
+                event.exchange = reply.exchange;
+                event.routingKey = reply.first;
+                event.payloadSize = reply.payloadSize();
+                event.commit();
+            }
+        }
+        return replies;
+    }
+
+    /**
+     * Checks the argument which is prefixed with its length as unsigned short in a binary frame. A longer argument
+     * would be decoded wrongly by the broker, its command fails without being sent.
+     *
+     * @return true if the command can be encoded with the current framing
+     */
+    private boolean isEncodable(PendingReply reply) {
+        if (!binary || reply.first == null || (reply.second == null && reply.body == null)) {
+            return true;
+        }
+        // a char takes at most three bytes in UTF-8
+        return reply.first.length() <= 0xFFFF / 3 || reply.first.getBytes(StandardCharsets.UTF_8).length <= 0xFFFF;
+    }
+
+    /**
+     * Copies the remaining bytes, as the caller may reuse the buffer before the command is written.
+     */
+    private static ByteBuffer copyOf(ByteBuffer body) {
+        return body == null ? null : ByteBuffer.allocate(body.remaining()).put(body.duplicate()).flip();
+    }
+
+    /**
+     * Makes the calling thread the writer unless another thread is writing. The calling thread writes one frame at
+     * most, a backlog is handed to a writer thread together with the signals seen so far.
+     */
+    private void signalWriter() {
+        if (writeSignals.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = writeQueued() ? writeSignals.addAndGet(-1) : 1;
+        if (missed != 0) {
+            Thread.ofVirtual().name("channel-writer").start(() -> writeBacklog(missed));
+        }
+    }
+
+    /**
+     * Body of the writer thread. Checks the queue again for every signal it missed, so a command queued before the
+     * signal is always written.
+     *
+     * @param missed the number of signals the previous writer did not account for
+     */
+    private void writeBacklog(int missed) {
+        do {
+            while (!writeQueued()) {
+                // the frame was full, write the next one
+            }
+            missed = writeSignals.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Encodes queued commands into one frame and writes it. Only called by the active writer.
+     *
+     * @return true if the queue was drained, false if the frame reached {@link #MAX_COALESCED_BYTES} before
+     */
+    private boolean writeQueued() {
+        encoder.clear();
+        int published = 0;
+        boolean drained = true;
+        PendingReply reply;
+        while ((reply = writeQueue.poll()) != null) {
+            if (closed) {
+                reply.complete(Reply.CLOSED);
+                continue;
+            }
+            encodeCommand(reply.opcode, reply.first, reply.second, reply.body);
+            reply.body = null;
+            pendingReplies.add(reply);
+            // the reply may only be read after the messages in front of it
+            resumeReading();
+            if (reply.publish) {
+                published++;
+            }
+            if (encoder.position() >= MAX_COALESCED_BYTES) {
+                drained = false;
+                break;
+            }
+        }
+        if (encoder.position() > 0) {
+            flush();
+        }
+        if (published > 0) {
+            metrics.published(published);
+        }
+
+        // the transport may have been closed concurrently before the replies were queued
+        if (closed) {
+            failPendingReplies();
+        }
+        return drained;
+    }
+
+    private void encodeCommand(Opcode opcode, String first, String second, ByteBuffer body) {
+        if (binary) {
+            encodeFrame(opcode, first, second, body);
+            return;
+        }
+
+        encodePrefix(encoder);
+        encoder.append(opcode.keyword());
+        if (first != null) {
+            encoder.append(' ').append(first);
+        }
+        if (second != null) {
+            encoder.append(' ').append(second);
+        }
+        if (body != null) {
+            encoder.append(' ').append(body);
+        }
+        encoder.append('\n');
+    }
+
+    /**
+     * Encodes the command as binary frame. Every argument except the last is prefixed with its length as unsigned
+     * short, the last one takes the rest of the payload.
+     */
+    private void encodeFrame(Opcode opcode, String first, String second, ByteBuffer body) {
+        int start = encoder.position();
+        encoder.appendByte(opcode.code()).appendInt(0);
+
+        if (first != null && (second != null || body != null)) {
+            int lengthIndex = encoder.position();
+            encoder.appendShort(0).append(first);
+            encoder.putShort(lengthIndex, encoder.position() - lengthIndex - 2);
+        } else if (first != null) {
+            encoder.append(first);
+        }
+        if (second != null) {
+            encoder.append(second);
+        } else if (body != null) {
+            encoder.append(body);
+        }
+        encoder.putInt(start + FrameDecoder.LENGTH_OFFSET, encoder.position() - start - FrameDecoder.HEADER_SIZE);
+    }
+
+    /**
+     * Writes the encoded frame, only called by the active writer.
+     */
+    private void flush() {
+        try {
+            ByteBuffer frame = encoder.frame();
+            int bytes = frame.remaining();
+            write(frame);
+            metrics.sent(bytes);
+        } catch (IOException e) {
+            closeTransport();
+            onClosed();
+        }
+    }
+
+    /**
+     * Sets the maximum number of unacknowledged publishes of {@link #publishPipelined(String, List)}.
+     *
+     * @param publishWindow the window size, at least 1
+     */
+    public void setPublishWindow(int publishWindow) {
+        if (publishWindow < 1) {
+            throw new IllegalArgumentException("publish window must be at least 1");
+        }
+        this.publishWindow = publishWindow;
+    }
+
+    /**
+     * Configures the buffer between the thread reading from the broker and the subscription callback. Must be called
+     * before {@link #subscribe(Consumer)}.
+     *
+     * @param depth        the maximum number of buffered messages, rounded up to the next power of two
+     * @param waitStrategy how the subscription thread waits for messages
+     * @throws IllegalStateException if a subscription is active
+     */
+    public void setPrefetch(int depth, WaitStrategy waitStrategy) {
+        if (subscribed) {
+            throw new IllegalStateException("prefetch cannot be changed while subscribed");
+        }
+        deliveries = new SpscRingBuffer<>(depth, waitStrategy);
+    }
+
+    /**
+     * Sets the pool of the buffers which hold received messages until they are consumed. Must be called before
+     * {@link #subscribe(Consumer)}.
+     *
+     * @param bufferPool the pool, {@link BufferPool#getDefault()} by default
+     * @throws IllegalStateException if a subscription is active
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        if (subscribed) {
+            throw new IllegalStateException("buffer pool cannot be changed while subscribed");
+        }
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * @return the number of received messages which wait for the subscription callback
+     */
+    public int getPrefetchCount() {
+        return deliveries.size() + overflow.size();
+    }
+
+    /**
+     * @return the maximum number of received messages which wait for the subscription callback
+     */
+    public int getPrefetchCapacity() {
+        return deliveries.capacity();
+    }
+
+    /**
+     * Called by the {@link Subscription} thread when it ends. Buffered and further messages are discarded.
+     */
+    void endSubscription() {
+        subscribed = false;
+        session.unsubscribed();
+        PooledBuffer message;
+        while ((message = deliveries.poll()) != null) {
+            message.release();
+        }
+        while ((message = overflow.poll()) != null) {
+            message.release();
+        }
+        resumeReading();
+    }
+
+    /**
+     * Enables the automatic recovery of the connection.
+     *
+     * @param recoveryPolicy the policy of the recovery, or null to disable it
+     */
+    public void setRecoveryPolicy(RecoveryPolicy recoveryPolicy) {
+        this.recoveryPolicy = recoveryPolicy;
+    }
+
+    /**
+     * @return true if the channel is currently reconnecting to the broker
+     */
+    public boolean isRecovering() {
+        return recoveryThread != null;
+    }
+
+    /**
+     * @return the duration of each completed recovery, from the loss of the connection until the session was replayed
+     */
+    public List<Duration> getRecoveryTimes() {
+        return List.copyOf(recoveryTimes);
+    }
+
+    /**
+     * @return the meters of this channel
+     */
+    public ChannelMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return true if the connection was closed for good, either by {@link #disconnect()} or by the broker, and is
+     * not being recovered
+     */
+    boolean isClosed() {
+        return closed && recoveryThread == null;
+    }
+
+    /**
+     * @return true if the channel is connected and never subscribed on its current connection, so it can be handed
+     * to another user
+     */
+    boolean isReusable() {
+        return !closed && recoveryThread == null && !subscribedOnConnection;
+    }
+
+    @Override
+    public void disconnect() {
+        established = false;
+        session.clear();
+        // a recovery in progress either gives up or finishes its connection, which is closed below
+        stopRecovery();
+        if (request(Opcode.EXIT, null, null).join() != Reply.OK_BYE){
+            return;
+        }
+
+        closed = true;
+        topology.clear();
+        closeTransport();
+        MetricsRegistry.getDefault().unregister(metrics);
+    }
+
+    @Override
+    public boolean exchangeDeclare(ExchangeType exchangeType, String exchangeName) {
+        this.exchangeType = exchangeType;
+        this.exchangeName = exchangeName;
+
+        if (topology.isCurrentExchange(exchangeType, exchangeName)) {
+            return true;
+        }
+
+        SmqpEvents.ExchangeDeclare event = new SmqpEvents.ExchangeDeclare();
+        event.begin();
+        boolean success = request(Opcode.EXCHANGE, exchangeType.toString().toLowerCase(), exchangeName).join() == Reply.OK;
+        if (event.shouldCommit()) {
+            event.exchange = exchangeName;
+            event.exchangeType = exchangeType.name();
+            event.success = success;
+            event.commit();
+        }
+        topology.exchangeDeclared(exchangeType, exchangeName, success);
+        if (success) {
+            session.exchangeDeclared(exchangeType, exchangeName);
+        }
+        return success;
+    }
+
+    @Override
+    public boolean queueBind(String queueName, String bindingKey) {
+        if (!selectQueue(queueName)){
+            return false;
+        }
+
+        boolean success = topology.isBound(bindingKey) || bind(queueName, bindingKey);
+        if (success) {
+            topology.bound(bindingKey);
+            session.queueBound(queueName, bindingKey);
+        }
+        return success;
+    }
+
+    private boolean bind(String queueName, String bindingKey) {
+        SmqpEvents.QueueBind event = new SmqpEvents.QueueBind();
+        event.begin();
+        boolean success = request(Opcode.BIND, bindingKey, null).join() == Reply.OK;
+        if (event.shouldCommit()) {
+            event.exchange = exchangeName;
+            event.queue = queueName;
+            event.routingKey = bindingKey;
+            event.success = success;
+            event.commit();
+        }
+        return success;
+    }
+
+    private boolean selectQueue(String queueName) {
+        if (topology.isCurrentQueue(queueName)) {
+            return true;
+        }
+
+        boolean success = request(Opcode.QUEUE, queueName, null).join() == Reply.OK;
+        topology.queueDeclared(queueName, success);
+        return success;
+    }
+
+    @Override
+    public Thread subscribe(Consumer<String> callback) {
+        return startSubscription(new Subscription(this, callback));
+    }
+
+    @Override
+    public Thread subscribeBytes(Consumer<ByteBuffer> callback) {
+        return startSubscription(Subscription.ofBytes(this, callback));
+    }
+
+    private Thread startSubscription(Subscription subscription) {
+        // messages may arrive right after the reply, before the subscription thread has started
+        subscribed = true;
+        subscribedOnConnection = true;
+        if (request(Opcode.SUBSCRIBE, null, null).join() != Reply.OK){
+            subscribed = false;
+            return null;
+        }
+        session.subscribed();
+
+        subscription.start();
+        return subscription;
+    }
+
+    @Override
+    public Thread subscribe(Consumer<String> callback, Function<String, ?> keyExtractor, StripedExecutor executor) {
+        return subscribe(msg -> executor.execute(keyExtractor.apply(msg), () -> callback.accept(msg)));
+    }
+
+    @Override
+    public String getFromSubscription() {
+        PooledBuffer message = pollDelivery();
+        if (message == null) {
+            return null;
+        }
+        try {
+            return LineDecoder.toString(message.buffer());
+        } finally {
+            message.release();
+        }
+    }
+
+    @Override
+    public ByteBuffer getBytesFromSubscription() {
+        PooledBuffer message = pollDelivery();
+        if (message == null) {
+            return null;
+        }
+        try {
+            return ByteBuffer.wrap(LineDecoder.toBytes(message.buffer()));
+        } finally {
+            message.release();
+        }
+    }
+
+    /**
+     * @return the next received message, which the caller has to release, or null if none arrived within the poll
+     * timeout
+     */
+    PooledBuffer pollDelivery() {
+        PooledBuffer message = deliveries.poll();
+        if (message == null) {
+            message = overflow.poll();
+        }
+        if (message == null) {
+            message = deliveries.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        resumeReadingIfDrained();
+        return message;
+    }
+
+    @Override
+    public boolean publish(String routingKey, String message) {
+        return request(Opcode.PUBLISH, routingKey, message).join() == Reply.OK;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> publishAsync(String routingKey, String message) {
+        return request(Opcode.PUBLISH, routingKey, message).thenApply(reply -> reply == Reply.OK);
+    }
+
+    @Override
+    public boolean publish(String routingKey, byte[] message) {
+        return publish(routingKey, ByteBuffer.wrap(message));
+    }
+
+    @Override
+    public boolean publish(String routingKey, ByteBuffer message) {
+        return publishAsync(routingKey, message).join();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> publishAsync(String routingKey, ByteBuffer message) {
+        if (!binary && containsLineBreak(message)) {
+            throw new IllegalArgumentException("line breaks in messages require binary framing");
+        }
+        return request(Opcode.PUBLISH, routingKey, null, message).thenApply(reply -> reply == Reply.OK);
+    }
+
+    private static boolean containsLineBreak(ByteBuffer message) {
+        for (int i = message.position(); i < message.limit(); i++) {
+            byte b = message.get(i);
+            if (b == '\n' || b == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<Boolean> publishPipelined(String routingKey, List<String> messages) {
+        List<CompletableFuture<Boolean>> replies = new ArrayList<>(messages.size());
+
+        for (int i = 0; i < messages.size(); i++) {
+            if (i >= publishWindow) {
+                // wait until the oldest publish of the window is acknowledged
+                replies.get(i - publishWindow).join();
+            }
+            replies.add(publishAsync(routingKey, messages.get(i)));
+        }
+
+        return replies.stream().map(CompletableFuture::join).toList();
+    }
+
+    @Override
+    public List<Boolean> publishBatch(String routingKey, List<String> messages) {
+        return publishBatch(messages.stream().map(message -> routingKey).toList(), messages);
+    }
+
+    @Override
+    public List<Boolean> publishBatch(List<String> routingKeys, List<String> messages) {
+        if (routingKeys.size() != messages.size()) {
+            throw new IllegalArgumentException("exactly one routing key per message is required");
+        }
+
+        return requestPublishes(routingKeys, messages).stream().map(reply -> reply.join() == Reply.OK).toList();
+    }
+
+    /**
+     * A reply which is waited for, together with the command it answers until the command is written. Publishes
+     * remember when and what they sent, to measure the time until the broker acknowledges them and to describe the
+     * acknowledgement in {@link SmqpEvents.AckReceived}.
+     */
+    private static final class PendingReply extends CompletableFuture<Reply> {
+
+        private final Opcode opcode;
+        private final String first;
+        private final String second;
+        private ByteBuffer body;
+        private final boolean publish;
+        private final long sentNanos;
+        private final String exchange;
+        private final int bodySize;
+
+        /**
+         * Creates the reply of the greeting, which is not asked for.
+         */
+        PendingReply() {
+            this(null, null, null, null, null);
+        }
+
+        PendingReply(Opcode opcode, String exchange, String first, String second, ByteBuffer body) {
+            this.opcode = opcode;
+            this.first = first;
+            this.second = second;
+            this.body = body;
+            this.publish = opcode == Opcode.PUBLISH;
+            this.sentNanos = publish ? System.nanoTime() : 0;
+            this.exchange = publish ? exchange : null;
+            this.bodySize = body == null ? 0 : body.remaining();
+        }
+
+        int payloadSize() {
+            return second != null ? SmqpEvents.payloadSize(second) : bodySize;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package dslab.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct {@link ByteBuffer}s in size classes of powers of two, from {@value #MIN_SIZE} bytes up to
+ * {@value #MAX_SIZE} bytes. Larger buffers are allocated on demand and not pooled.
+ * <p>
+ * Buffers are handed out as reference counted {@link PooledBuffer}s and return to the pool once the last reference
+ * is released. Each size class keeps at most {@value #DEFAULT_MAX_BYTES_PER_CLASS} bytes of free buffers, the rest is
+ * left to the garbage collector. The payload memory stays off-heap, so the heap only sees the small wrappers.
+ * <p>
+ * With leak detection, which the tests enable with the system property {@value #LEAK_DETECTION_PROPERTY}, every
+ * buffer remembers where it was acquired. A buffer which becomes unreachable without being released is reported
+ * together with that stack trace and counted in {@link #getLeaks()}.
+ */
+public final class BufferPool {
+
+    /**
+     * Enables the leak detection of {@link #getDefault()} if set to {@code true}.
+     */
+    public static final String LEAK_DETECTION_PROPERTY = "dslab.buffers.leakDetection";
+
+    public static final int MIN_SIZE = 256;
+    public static final int MAX_SIZE = 1 << 20;
+    public static final int DEFAULT_MAX_BYTES_PER_CLASS = 4 << 20;
+
+    private static final Logger LOG = LoggerFactory.getLogger(BufferPool.class);
+    private static final BufferPool DEFAULT = new BufferPool(DEFAULT_MAX_BYTES_PER_CLASS,
+            Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+
+    private final List<Queue<ByteBuffer>> freeBuffers;
+    private final AtomicInteger[] freeCounts;
+    private final int maxBytesPerClass;
+    private final Cleaner cleaner;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong outstanding = new AtomicLong();
+    private final LongAdder leaks = new LongAdder();
+
+    /**
+     * @param maxBytesPerClass the maximum number of bytes of free buffers per size class
+     * @param leakDetection    whether buffers which are never released are reported
+     */
+    public BufferPool(int maxBytesPerClass, boolean leakDetection) {
+        int classes = Integer.numberOfTrailingZeros(MAX_SIZE / MIN_SIZE) + 1;
+        this.freeBuffers = new ArrayList<>(classes);
+        this.freeCounts = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            freeBuffers.add(new ConcurrentLinkedQueue<>());
+            freeCounts[i] = new AtomicInteger();
+        }
+        this.maxBytesPerClass = maxBytesPerClass;
+        this.cleaner = leakDetection ? Cleaner.create() : null;
+    }
+
+    /**
+     * @return the pool shared by all channels
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Takes a buffer from the pool or allocates a new one.
+     *
+     * @param size the number of bytes needed
+     * @return a buffer with a reference count of 1, its limit is set to the size
+     */
+    public PooledBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative");
+        }
+
+        ByteBuffer buffer = null;
+        int sizeClass = sizeClass(size);
+        if (sizeClass >= 0) {
+            buffer = freeBuffers.get(sizeClass).poll();
+        }
+        if (buffer != null) {
+            freeCounts[sizeClass].decrementAndGet();
+            hits.increment();
+        } else {
+            buffer = ByteBuffer.allocateDirect(sizeClass >= 0 ? MIN_SIZE << sizeClass : size);
+            misses.increment();
+        }
+        outstanding.incrementAndGet();
+
+        buffer.clear().limit(size);
+        return new PooledBuffer(this, buffer, cleaner);
+    }
+
+    /**
+     * Copies the remaining bytes into a pooled buffer without changing the position of the source.
+     *
+     * @param source the bytes to copy
+     * @return a buffer in read mode holding the bytes, with a reference count of 1
+     */
+    public PooledBuffer copyOf(ByteBuffer source) {
+        PooledBuffer copy = acquire(source.remaining());
+        copy.buffer().put(0, source, source.position(), source.remaining());
+        return copy;
+    }
+
+    /**
+     * Called by the last release of a buffer.
+     */
+    void recycle(ByteBuffer buffer) {
+        outstanding.decrementAndGet();
+
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass < 0 || (MIN_SIZE << sizeClass) != buffer.capacity()) {
+            return;
+        }
+        if (freeCounts[sizeClass].incrementAndGet() * (long) buffer.capacity() > maxBytesPerClass) {
+            freeCounts[sizeClass].decrementAndGet();
+            return;
+        }
+        freeBuffers.get(sizeClass).offer(buffer);
+    }
+
+    /**
+     * Called by the cleaner if a buffer became unreachable before it was released.
+     */
+    void leaked(Throwable acquiredAt) {
+        leaks.increment();
+        outstanding.decrementAndGet();
+        LOG.error("buffer was not released before it was garbage collected", acquiredAt);
+    }
+
+    /**
+     * @param size the number of bytes
+     * @return the index of the smallest size class which fits the bytes, or -1 if they exceed the largest one
+     */
+    private static int sizeClass(int size) {
+        if (size > MAX_SIZE) {
+            return -1;
+        }
+        return 32 - Integer.numberOfLeadingZeros(Math.max(size - 1, 0) / MIN_SIZE);
+    }
+
+    /**
+     * @return the number of buffers which were taken from the pool
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of buffers which had to be allocated
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of buffers which were acquired but not released yet
+     */
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return the number of buffers which were garbage collected without being released, only counted with leak
+     * detection
+     */
+    public long getLeaks() {
+        return leaks.sum();
+    }
+}
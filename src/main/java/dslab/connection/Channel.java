@@ -1,165 +1,105 @@
 package dslab.connection;
 
-import dslab.connection.types.ExchangeType;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.net.UnknownHostException;
-import java.nio.Buffer;
-import java.util.function.Consumer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
-public class Channel implements IChannel {
+/**
+ * Channel based on a blocking {@link Socket}. A dedicated background thread per channel reads everything the broker
+ * sends. While reading is paused, the thread stops calling read, so the socket buffers fill up and the broker is
+ * slowed down by TCP flow control.
+ */
+public class Channel extends AbstractChannel {
 
     private final String host;
     private final int port;
-    private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
-    ExchangeType exchangeType;
-    String exchangeName;
+    private volatile Socket socket;
+    private OutputStream out;
+    private volatile Thread reader;
 
     public Channel(String host, int port) {
+        super(host + ":" + port);
         this.host = host;
         this.port = port;
     }
 
     @Override
-    public boolean connect() {
-        try {
-            socket = new Socket(host, port);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
-
-            String answer = in.readLine();
-            if (!answer.equals("ok SMQP")){
-                closeSocket();
-                return false;
-            }
-            return true;
-        } catch (IOException e2) {
-            return false;
-        }
-    }
-
-
-    private void closeSocket() {
-        try{
-            if(socket != null){
-                socket.close();
-            }
-
-        } catch (IOException ignored){
-
-        }
+    protected void openTransport() throws IOException {
+        Socket socket = new Socket(host, port);
+        this.socket = socket;
+        out = socket.getOutputStream();
+
+        Thread reader = new Thread(() -> readLoop(socket), "channel-reader-" + host + ":" + port);
+        reader.setDaemon(true);
+        this.reader = reader;
+        reader.start();
     }
 
-    @Override
-    public void disconnect() {
-        try{
-            out.println("exit");
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            String answer = in.readLine();
+    private void readLoop(Socket socket) {
+        FrameDecoder decoder = newDecoder();
+        byte[] buffer = new byte[8192];
+        ByteBuffer view = ByteBuffer.wrap(buffer).limit(0);
 
-            if (!answer.equals("ok bye")){
-                return;
+        try {
+            InputStream in = socket.getInputStream();
+            while (socket == this.socket) {
+                if (isReadPaused()) {
+                    // woken up when reading resumes, the timeout notices a closed socket
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(POLL_TIMEOUT_MS));
+                    continue;
+                }
+                // bytes left over when reading was paused are decoded first
+                if (!view.hasRemaining()) {
+                    int n = in.read(buffer);
+                    if (n == -1) {
+                        break;
+                    }
+                    getMetrics().received(n);
+                    view.limit(n).position(0);
+                }
+                decoder.decode(view);
             }
-
-
-            closeSocket();
         } catch (IOException ignored) {
-
+            // also thrown if the broker sent an invalid frame
         }
 
-    }
-
-    @Override
-    public boolean exchangeDeclare(ExchangeType exchangeType, String exchangeName) {
-        this.exchangeType = exchangeType;
-        this.exchangeName = exchangeName;
-
-        out.println("exchange " + exchangeType.toString().toLowerCase() + " " + exchangeName);
-        try {
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            String answer = in.readLine();
-            if (!answer.equals("ok")){
-                return false;
-            }
-        } catch (IOException e){
-            return false;
+        // the channel may already be connected again with a new socket
+        if (socket == this.socket) {
+            closeTransport();
+            onClosed();
         }
-
-        return true;
     }
 
     @Override
-    public boolean queueBind(String queueName, String bindingKey) {
-        out.println("queue " + queueName);
-        try{
-            String answer = in.readLine();
-            if (!answer.equals("ok")){
-                return false;
-            }
-            out.println("bind " + bindingKey);
-            answer = in.readLine();
-            if (!answer.equals("ok")){
-                return false;
-            }
-        } catch (IOException e){
-            return false;
+    protected void readPausedChanged(boolean paused) {
+        Thread reader = this.reader;
+        if (!paused && reader != null) {
+            LockSupport.unpark(reader);
         }
-
-        return true;
     }
 
     @Override
-    public Thread subscribe(Consumer<String> callback) {
-        out.println("subscribe");
-
-        try{
-            String answer = in.readLine();
-            if (!answer.equals("ok")){
-                return null;
-            }
-        } catch (IOException e){
-            return null;
-        }
-
-        Subscription subscription = new Subscription(this, callback);
-        subscription.start();
-        return subscription;
+    protected void write(ByteBuffer frame) throws IOException {
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        out.flush();
     }
 
     @Override
-    public String getFromSubscription() {
-        String msg = "";
-        try {
-            if (in.ready()) {
-                msg = in.readLine();
-            } else {
-                return null;
+    protected void closeTransport() {
+        // detaches the reader of the socket, so that it does not close the channel once it is connected again
+        Socket socket = this.socket;
+        this.socket = null;
+        try{
+            if(socket != null){
+                socket.close();
             }
-        } catch (IOException ignored) {
-        }
-        return msg;
-    }
 
-    @Override
-    public boolean publish(String routingKey, String message) {
-        out.println("publish " + routingKey + " " + message);
+        } catch (IOException ignored){
 
-        try {
-            String answer = in.readLine();
-            if (answer == null || !answer.equals("ok")) {
-                return false;
-            }
-        } catch (IOException e) {
-            return false;
         }
-
-        return true;
     }
 }
@@ -0,0 +1,361 @@
+package dslab.connection;
+
+import dslab.connection.metrics.Timer;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Keeps connected channels per broker id, e.g. {@code broker-0}, so short tasks can borrow a channel which already
+ * completed the TCP connect and the SMQP handshake.
+ * <p>
+ * A borrowed channel has to be given back with {@link #giveBack(AbstractChannel)} instead of being disconnected. It
+ * keeps the exchange it declared last. Channels are validated on borrow and on give back: only channels which are
+ * still connected and never subscribed are reused, as the broker keeps delivering to a connection once it
+ * subscribed. The others are disconnected.
+ * <p>
+ * A background thread evicts channels which were idle longer than the idle timeout, keeping at least the minimum
+ * number of idle channels per broker, and connects new ones up to that minimum.
+ */
+public class ChannelPool implements AutoCloseable {
+
+    private final Function<String, ? extends AbstractChannel> channelFactory;
+    private final Options options;
+    private final Map<String, BrokerPool> brokers = new ConcurrentSkipListMap<>();
+    private final Map<AbstractChannel, BrokerPool> borrowed = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    /**
+     * @param channelFactory creates an unconnected channel to a broker id, or returns null if the broker is unknown
+     * @param options        the sizes and timeouts of the pool
+     */
+    public ChannelPool(Function<String, ? extends AbstractChannel> channelFactory, Options options) {
+        this.channelFactory = channelFactory;
+        this.options = options;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().daemon().name("channel-pool-evictor").factory());
+        long period = Math.max(options.idleTimeout().toMillis() / 2, 10);
+        evictor.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Connects channels until each of the brokers has the minimum number of idle channels.
+     *
+     * @param brokerIds the ids of the brokers
+     * @return true if all channels could be connected, false also if a broker is unknown
+     */
+    public boolean prewarm(String... brokerIds) {
+        boolean success = true;
+        for (String brokerId : brokerIds) {
+            BrokerPool pool = brokerPool(brokerId);
+            success &= pool != null && pool.fill();
+        }
+        return success;
+    }
+
+    /**
+     * Takes an idle channel to the broker, or connects a new one if none is idle. Waits up to the borrow timeout while
+     * the maximum number of channels to the broker is borrowed.
+     *
+     * @param brokerId the id of the broker
+     * @return the connected channel, or null if the timeout elapsed, the broker is unknown or cannot be connected
+     * @throws IllegalStateException if the pool is closed
+     */
+    public AbstractChannel borrow(String brokerId) {
+        if (closed) {
+            throw new IllegalStateException("channel pool is closed");
+        }
+        BrokerPool pool = brokerPool(brokerId);
+        if (pool == null) {
+            return null;
+        }
+        AbstractChannel channel = pool.borrow();
+        if (channel != null) {
+            borrowed.put(channel, pool);
+        }
+        return channel;
+    }
+
+    /**
+     * Gives a borrowed channel back. It is kept idle if it can be reused and fewer than the maximum number of channels
+     * to its broker are idle, otherwise it is disconnected.
+     *
+     * @param channel the channel from {@link #borrow(String)}
+     * @throws IllegalArgumentException if the channel is not borrowed from this pool
+     */
+    public void giveBack(AbstractChannel channel) {
+        BrokerPool pool = borrowed.remove(channel);
+        if (pool == null) {
+            throw new IllegalArgumentException("channel is not borrowed from this pool");
+        }
+        pool.giveBack(channel);
+    }
+
+    /**
+     * @param brokerId the id of the broker
+     * @return the statistics of the channels to the broker, or null if no channel to it was borrowed or prewarmed
+     */
+    public PoolStats getStats(String brokerId) {
+        BrokerPool pool = brokers.get(brokerId);
+        return pool == null ? null : pool.stats();
+    }
+
+    /**
+     * @return the statistics of every broker a channel was borrowed from or prewarmed for, ordered by broker id
+     */
+    public List<PoolStats> getStats() {
+        return brokers.values().stream().map(BrokerPool::stats).toList();
+    }
+
+    /**
+     * Returns the pool of the broker, creating it if the channel factory knows the broker. Otherwise the evictor would
+     * try to fill a pool of an unknown broker forever.
+     *
+     * @return the pool, or null if the broker is unknown
+     */
+    private BrokerPool brokerPool(String brokerId) {
+        BrokerPool pool = brokers.get(brokerId);
+        if (pool != null) {
+            return pool;
+        }
+        AbstractChannel first = channelFactory.apply(brokerId);
+        if (first == null) {
+            return null;
+        }
+        return brokers.computeIfAbsent(brokerId, id -> new BrokerPool(id, first));
+    }
+
+    /**
+     * Disconnects expired idle channels and connects new ones up to the minimum. Called by the background thread.
+     */
+    void evict() {
+        for (BrokerPool pool : brokers.values()) {
+            pool.evict();
+            if (!closed) {
+                pool.fill();
+            }
+        }
+    }
+
+    /**
+     * Disconnects all idle channels. Borrowed channels are disconnected once they are given back.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        brokers.values().forEach(BrokerPool::clear);
+    }
+
+    /**
+     * The channels to one broker.
+     */
+    private final class BrokerPool {
+
+        private final String brokerId;
+        // most recently given back first, so rarely needed channels expire
+        private final Deque<IdleChannel> idle = new ArrayDeque<>();
+        private final Semaphore permits;
+        private final Timer waits = new Timer();
+        private final LongAdder created = new LongAdder();
+        private final LongAdder destroyed = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        // the channel created to find out whether the broker is known, it is connected first
+        private final AtomicReference<AbstractChannel> unconnected;
+
+        BrokerPool(String brokerId, AbstractChannel unconnected) {
+            this.brokerId = brokerId;
+            this.permits = new Semaphore(options.maxBorrowed(), true);
+            this.unconnected = new AtomicReference<>(unconnected);
+        }
+
+        AbstractChannel borrow() {
+            long start = System.nanoTime();
+            try {
+                if (!permits.tryAcquire(options.borrowTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+                    timeouts.increment();
+                    return null;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                waits.record(System.nanoTime() - start);
+            }
+
+            IdleChannel candidate;
+            while ((candidate = pollIdle()) != null) {
+                if (candidate.channel().isReusable()) {
+                    return candidate.channel();
+                }
+                destroy(candidate.channel());
+            }
+
+            AbstractChannel channel = connect();
+            if (channel == null) {
+                permits.release();
+            }
+            return channel;
+        }
+
+        void giveBack(AbstractChannel channel) {
+            permits.release();
+            if (closed || !channel.isReusable() || !offerIdle(channel)) {
+                destroy(channel);
+            }
+        }
+
+        /**
+         * Connects channels until the minimum number is idle.
+         *
+         * @return false if a channel could not be connected
+         */
+        boolean fill() {
+            while (idleCount() < options.minIdle()) {
+                AbstractChannel channel = connect();
+                if (channel == null) {
+                    return false;
+                }
+                if (closed || !offerIdle(channel)) {
+                    destroy(channel);
+                    return !closed;
+                }
+            }
+            return true;
+        }
+
+        void evict() {
+            long now = System.nanoTime();
+            List<AbstractChannel> expired = new ArrayList<>();
+            synchronized (idle) {
+                // the oldest channels are at the end
+                while (idle.size() > options.minIdle()
+                        && now - idle.peekLast().idleSince() > options.idleTimeout().toNanos()) {
+                    expired.add(idle.pollLast().channel());
+                }
+                idle.removeIf(candidate -> {
+                    if (candidate.channel().isReusable()) {
+                        return false;
+                    }
+                    expired.add(candidate.channel());
+                    return true;
+                });
+            }
+            expired.forEach(this::destroy);
+        }
+
+        void clear() {
+            List<IdleChannel> channels;
+            synchronized (idle) {
+                channels = new ArrayList<>(idle);
+                idle.clear();
+            }
+            channels.forEach(channel -> destroy(channel.channel()));
+        }
+
+        private IdleChannel pollIdle() {
+            synchronized (idle) {
+                return idle.pollFirst();
+            }
+        }
+
+        private boolean offerIdle(AbstractChannel channel) {
+            synchronized (idle) {
+                // close() clears the idle channels after it marked the pool as closed, under the same lock
+                if (closed || idle.size() >= options.maxIdle()) {
+                    return false;
+                }
+                idle.addFirst(new IdleChannel(channel, System.nanoTime()));
+                return true;
+            }
+        }
+
+        private int idleCount() {
+            synchronized (idle) {
+                return idle.size();
+            }
+        }
+
+        private AbstractChannel connect() {
+            AbstractChannel channel = unconnected.getAndSet(null);
+            if (channel == null) {
+                channel = channelFactory.apply(brokerId);
+            }
+            if (channel == null || !channel.connect()) {
+                return null;
+            }
+            created.increment();
+            return channel;
+        }
+
+        private void destroy(AbstractChannel channel) {
+            destroyed.increment();
+            channel.disconnect();
+        }
+
+        PoolStats stats() {
+            long waitCount = waits.getCount();
+            return new PoolStats(brokerId, idleCount(), options.maxBorrowed() - permits.availablePermits(),
+                    created.sum(), destroyed.sum(), timeouts.sum(),
+                    Duration.ofNanos(waitCount == 0 ? 0 : waits.getTotalNanos() / waitCount),
+                    Duration.ofNanos(waits.getMaxNanos()));
+        }
+    }
+
+    private record IdleChannel(AbstractChannel channel, long idleSince) {
+    }
+
+    /**
+     * @param minIdle       the number of idle channels per broker which are kept connected, even if they expired
+     * @param maxIdle       the maximum number of idle channels per broker, further given back channels are
+     *                      disconnected
+     * @param maxBorrowed   the maximum number of channels per broker which are borrowed at the same time
+     * @param idleTimeout   the time after which an idle channel above the minimum is disconnected
+     * @param borrowTimeout the maximum time a borrower waits while the maximum number of channels is borrowed
+     */
+    public record Options(int minIdle, int maxIdle, int maxBorrowed, Duration idleTimeout, Duration borrowTimeout) {
+
+        /**
+         * Keeps one to eight idle channels per broker for a minute and lends at most 64 at once.
+         */
+        public static final Options DEFAULT = new Options(1, 8, 64, Duration.ofMinutes(1), Duration.ofSeconds(5));
+
+        public Options {
+            if (minIdle < 0 || maxIdle < minIdle || maxBorrowed < 1 || idleTimeout.isNegative()
+                    || borrowTimeout.isNegative()) {
+                throw new IllegalArgumentException("invalid options: %d min idle, %d max idle, %d max borrowed"
+                        .formatted(minIdle, maxIdle, maxBorrowed));
+            }
+        }
+    }
+
+    /**
+     * Statistics of the channels to a broker since the pool was created.
+     *
+     * @param brokerId    the id of the broker
+     * @param idle        the number of idle channels
+     * @param borrowed    the number of borrowed channels
+     * @param created     the number of connected channels
+     * @param destroyed   the number of disconnected channels
+     * @param timeouts    the number of borrows which timed out
+     * @param averageWait the average time a borrower waited for a free slot
+     * @param maxWait     the longest time a borrower waited for a free slot
+     */
+    public record PoolStats(String brokerId, int idle, int borrowed, long created, long destroyed, long timeouts,
+                            Duration averageWait, Duration maxWait) {
+    }
+}
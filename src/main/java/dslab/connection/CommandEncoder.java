@@ -0,0 +1,185 @@
+package dslab.connection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes SMQP commands as UTF-8 straight into a reusable byte buffer, without intermediate Strings or
+ * {@code byte[]}s. The buffer only grows if a frame does not fit, so encoding does not allocate at steady state.
+ */
+final class CommandEncoder {
+
+    private ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    /**
+     * Starts a new frame, discarding the previous one.
+     *
+     * @return this encoder
+     */
+    CommandEncoder clear() {
+        buffer.clear();
+        return this;
+    }
+
+    /**
+     * Appends a single ASCII character, e.g. a separator or the line terminator.
+     *
+     * @param c the ASCII character
+     * @return this encoder
+     */
+    CommandEncoder append(char c) {
+        ensureCapacity(1);
+        buffer.put((byte) c);
+        return this;
+    }
+
+    /**
+     * Appends a single byte, e.g. the opcode of a binary frame.
+     *
+     * @param value the byte
+     * @return this encoder
+     */
+    CommandEncoder appendByte(int value) {
+        ensureCapacity(1);
+        buffer.put((byte) value);
+        return this;
+    }
+
+    /**
+     * Appends the value as big-endian unsigned short.
+     *
+     * @param value the value
+     * @return this encoder
+     */
+    CommandEncoder appendShort(int value) {
+        ensureCapacity(2);
+        buffer.putShort((short) value);
+        return this;
+    }
+
+    /**
+     * Appends the value as big-endian int.
+     *
+     * @param value the value
+     * @return this encoder
+     */
+    CommandEncoder appendInt(int value) {
+        ensureCapacity(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    /**
+     * Overwrites a previously appended unsigned short, e.g. a length which is only known afterwards.
+     *
+     * @param index the position of the short in the frame
+     * @param value the value
+     */
+    void putShort(int index, int value) {
+        buffer.putShort(index, (short) value);
+    }
+
+    /**
+     * Overwrites a previously appended int, e.g. a length which is only known afterwards.
+     *
+     * @param index the position of the int in the frame
+     * @param value the value
+     */
+    void putInt(int index, int value) {
+        buffer.putInt(index, value);
+    }
+
+    /**
+     * @return the number of bytes appended to the frame so far
+     */
+    int position() {
+        return buffer.position();
+    }
+
+    /**
+     * Appends the decimal representation of the non-negative number.
+     *
+     * @param value the number
+     * @return this encoder
+     */
+    CommandEncoder append(int value) {
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+        return this;
+    }
+
+    /**
+     * Appends the characters encoded as UTF-8.
+     *
+     * @param s the characters
+     * @return this encoder
+     */
+    CommandEncoder append(CharSequence s) {
+        // a char never takes more than 3 bytes, surrogate pairs take 4 bytes for 2 chars
+        ensureCapacity(s.length() * 3);
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends the remaining bytes of the buffer as they are, without changing its position.
+     *
+     * @param bytes the bytes
+     * @return this encoder
+     */
+    CommandEncoder append(ByteBuffer bytes) {
+        int length = bytes.remaining();
+        ensureCapacity(length);
+        buffer.put(buffer.position(), bytes, bytes.position(), length);
+        buffer.position(buffer.position() + length);
+        return this;
+    }
+
+    /**
+     * Finishes the frame and returns it. The buffer is backed by an array and stays valid until the next
+     * {@link #clear()}, nothing can be appended in between.
+     *
+     * @return the frame in read mode
+     */
+    ByteBuffer frame() {
+        return buffer.flip();
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            grown.put(buffer.flip());
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package dslab.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single TCP connection to the broker which carries any number of lightweight {@link LogicalChannel}s.
+ * <p>
+ * After the SMQP handshake the connection switches to multiplex mode with the {@code multiplex} command. From then
+ * on, every line in both directions is prefixed with the id of the logical channel it belongs to, e.g.
+ * {@code 3 publish key message}. A logical channel is opened with {@code <id> open}, which the broker answers with
+ * {@code <id> ok SMQP}, and closed with {@code <id> exit}. Each logical channel has its own exchange, queue and
+ * subscription state on the broker.
+ * <p>
+ * All logical channels share the thread which reads the connection. While the prefetch buffer of one of them is full,
+ * the connection stops reading, so a slow subscriber slows down every channel of its connection. Replies which other
+ * channels wait for are still read, the paused channel buffers its messages meanwhile.
+ */
+public class Connection implements AutoCloseable {
+
+    private final String host;
+    private final int port;
+    private final AtomicInteger nextChannelId = new AtomicInteger(1);
+    private final Map<Integer, LogicalChannel> channels = new ConcurrentHashMap<>();
+    private final BlockingQueue<Reply> controlReplies = new LinkedBlockingQueue<>();
+    private volatile boolean multiplexed;
+    private volatile boolean closed = true;
+    private volatile Socket socket;
+    private OutputStream out;
+    private final AtomicInteger pausedChannels = new AtomicInteger();
+    private volatile Thread reader;
+
+    public Connection(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Connects to the broker and enables the multiplex mode.
+     *
+     * @return true if the connection was established and the broker supports multiplexing, false otherwise
+     */
+    public boolean open() {
+        // a lost connection leaves its CLOSED marker behind, the greeting of this connection has to be read
+        controlReplies.clear();
+        multiplexed = false;
+        try {
+            Socket socket = new Socket(host, port);
+            this.socket = socket;
+            out = socket.getOutputStream();
+            closed = false;
+
+            Thread reader = new Thread(() -> readLoop(socket), "connection-reader-" + host + ":" + port);
+            reader.setDaemon(true);
+            this.reader = reader;
+            reader.start();
+
+            if (controlReplies.take() != Reply.OK_SMQP) {
+                close();
+                return false;
+            }
+
+            write(ByteBuffer.wrap("multiplex\n".getBytes(StandardCharsets.UTF_8)));
+            if (controlReplies.take() != Reply.OK) {
+                close();
+                return false;
+            }
+            multiplexed = true;
+            return true;
+        } catch (IOException e) {
+            close();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            return false;
+        }
+    }
+
+    /**
+     * Creates a new logical channel on this connection. The channel still has to be connected with
+     * {@link LogicalChannel#connect()}, which only costs a round trip on the already open connection.
+     *
+     * @return the new logical channel
+     */
+    public LogicalChannel createChannel() {
+        return new LogicalChannel(this, nextChannelId.getAndIncrement());
+    }
+
+    void register(LogicalChannel channel) throws IOException {
+        if (closed || !multiplexed) {
+            throw new IOException("connection is not open");
+        }
+        channels.put(channel.getId(), channel);
+    }
+
+    void unregister(LogicalChannel channel) {
+        channels.remove(channel.getId(), channel);
+    }
+
+    synchronized void write(ByteBuffer frame) throws IOException {
+        if (closed) {
+            throw new IOException("connection is closed");
+        }
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        out.flush();
+        if (pausedChannels.get() > 0) {
+            // the reply to the command has to be read
+            LockSupport.unpark(reader);
+        }
+    }
+
+    /**
+     * Called when a logical channel paused or resumed reading.
+     *
+     * @param paused true if the channel paused reading
+     */
+    void channelReadPaused(boolean paused) {
+        if (paused) {
+            pausedChannels.incrementAndGet();
+        } else if (pausedChannels.decrementAndGet() == 0) {
+            LockSupport.unpark(reader);
+        }
+    }
+
+    private boolean isReadPaused() {
+        return pausedChannels.get() > 0 && channels.values().stream().noneMatch(AbstractChannel::hasPendingReplies);
+    }
+
+    private void readLoop(Socket socket) {
+        LineDecoder decoder = new LineDecoder(this::onLine, this::isReadPaused);
+        byte[] buffer = new byte[8192];
+        ByteBuffer view = ByteBuffer.wrap(buffer).limit(0);
+
+        try {
+            InputStream in = socket.getInputStream();
+            while (socket == this.socket) {
+                if (isReadPaused()) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(AbstractChannel.POLL_TIMEOUT_MS));
+                    continue;
+                }
+                if (!view.hasRemaining()) {
+                    int n = in.read(buffer);
+                    if (n == -1) {
+                        break;
+                    }
+                    view.limit(n).position(0);
+                }
+                decoder.decode(view);
+            }
+        } catch (IOException ignored) {
+        }
+
+        // the connection may have been opened again meanwhile, which must not be affected
+        if (socket == this.socket) {
+            // unblock a pending open()
+            controlReplies.add(Reply.CLOSED);
+            close();
+        }
+    }
+
+    private void onLine(ByteBuffer line) {
+        if (!multiplexed) {
+            controlReplies.add(Reply.parse(line));
+            return;
+        }
+
+        // parse the channel id in place and pass the rest of the line on
+        int id = 0;
+        int digits = 0;
+        while (line.hasRemaining()) {
+            byte b = line.get();
+            if (b == ' ' && digits > 0) {
+                LogicalChannel channel = channels.get(id);
+                if (channel != null) {
+                    channel.onLine(line);
+                }
+                return;
+            }
+            if (b < '0' || b > '9') {
+                // not addressed to a logical channel
+                return;
+            }
+            id = id * 10 + (b - '0');
+            digits++;
+        }
+    }
+
+    /**
+     * @return the host and port of the broker
+     */
+    String getAddress() {
+        return host + ":" + port;
+    }
+
+    /**
+     * @return true if the connection is open
+     */
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Closes the TCP connection and with it all logical channels.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException ignored) {
+        }
+
+        for (LogicalChannel channel : channels.values()) {
+            channel.onClosed();
+        }
+        channels.clear();
+    }
+}
@@ -0,0 +1,203 @@
+package dslab.connection;
+
+import dslab.connection.types.ExchangeType;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Consumes one queue with several channels, each with its own connection and subscription thread.
+ * <p>
+ * All members bind the same queue and subscribe to it. A broker which hands the messages of a queue to its
+ * subscribers in turns spreads them over the members, so consumption is no longer limited to one connection and one
+ * thread. The messages of all members are merged into one callback. Messages of different members are consumed
+ * concurrently, therefore there is no order between them.
+ * <p>
+ * The group succeeds or fails as a whole. If binding or subscribing fails for one member, all members are
+ * disconnected, so no member stays subscribed at the broker while the group reports a failure. The group has to be
+ * connected again then.
+ */
+public class ConsumerGroup implements AutoCloseable {
+
+    private final AbstractChannel[] members;
+    private final LongAdder[] consumed;
+    // only changed while holding the lock of the group
+    private final List<Thread> subscriptions = new ArrayList<>();
+    private volatile long subscribedNanos;
+
+    /**
+     * @param host    the host of the broker
+     * @param port    the port of the broker
+     * @param members the number of channels
+     */
+    public ConsumerGroup(String host, int port, int members) {
+        this(members, () -> new Channel(host, port));
+    }
+
+    /**
+     * @param members        the number of channels
+     * @param channelFactory creates the unconnected channel of each member
+     */
+    public ConsumerGroup(int members, Supplier<? extends AbstractChannel> channelFactory) {
+        if (members < 1) {
+            throw new IllegalArgumentException("members must be at least 1");
+        }
+        this.members = new AbstractChannel[members];
+        this.consumed = new LongAdder[members];
+        for (int i = 0; i < members; i++) {
+            this.members[i] = channelFactory.get();
+            this.consumed[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Connects all members. If one of them cannot be connected, the others are disconnected again.
+     *
+     * @return true if all members are connected
+     */
+    public boolean connect() {
+        for (int i = 0; i < members.length; i++) {
+            if (!members[i].connect()) {
+                for (int j = 0; j < i; j++) {
+                    members[j].disconnect();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Declares the exchange and binds the queue on every member, see
+     * {@link IChannel#exchangeDeclare(ExchangeType, String)} and {@link IChannel#queueBind(String, String)}.
+     *
+     * @return true if all members declared the exchange and bound the queue, otherwise all members are disconnected
+     */
+    public boolean queueBind(ExchangeType exchangeType, String exchangeName, String queueName, String bindingKey) {
+        for (AbstractChannel member : members) {
+            if (!member.exchangeDeclare(exchangeType, exchangeName) || !member.queueBind(queueName, bindingKey)) {
+                disconnect();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Subscribes every member and passes all messages to the callback on the subscription threads of the members.
+     *
+     * @param callback receives the messages of all members, concurrently, so it has to be thread-safe
+     * @return true if all members are subscribed, otherwise all members are disconnected
+     */
+    public boolean subscribe(Consumer<String> callback) {
+        return subscribe(callback, Runnable::run);
+    }
+
+    /**
+     * Subscribes every member and runs the callback of every message with the executor, e.g. a
+     * {@link StripedExecutor} lane or a thread pool.
+     *
+     * @param callback receives the messages of all members
+     * @param executor runs the callback of each message
+     * @return true if all members are subscribed, otherwise all members are disconnected
+     */
+    public synchronized boolean subscribe(Consumer<String> callback, Executor executor) {
+        subscribedNanos = System.nanoTime();
+        for (int i = 0; i < members.length; i++) {
+            LongAdder counter = consumed[i];
+            Thread subscription = members[i].subscribe(message -> {
+                counter.increment();
+                executor.execute(() -> callback.accept(message));
+            });
+            if (subscription == null) {
+                // the members subscribed so far would keep receiving their share of the queue
+                unsubscribe();
+                disconnect();
+                return false;
+            }
+            subscriptions.add(subscription);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the subscriptions of all members. Messages which were not consumed yet are discarded.
+     */
+    public synchronized void unsubscribe() {
+        subscriptions.forEach(Thread::interrupt);
+        subscriptions.clear();
+    }
+
+    /**
+     * @return the number of members
+     */
+    public int getMemberCount() {
+        return members.length;
+    }
+
+    /**
+     * @param index the index of the member
+     * @return the channel of the member
+     */
+    public AbstractChannel getMember(int index) {
+        return members[index];
+    }
+
+    /**
+     * @return the statistics of every member, in the order of the members
+     */
+    public List<MemberStats> getStats() {
+        double seconds = subscribedNanos == 0 ? 0 : (System.nanoTime() - subscribedNanos) / 1e9;
+        List<MemberStats> stats = new ArrayList<>(members.length);
+        for (int i = 0; i < members.length; i++) {
+            long count = consumed[i].sum();
+            stats.add(new MemberStats(i, count, seconds == 0 ? 0 : count / seconds,
+                    members[i].getPrefetchCount()));
+        }
+        return stats;
+    }
+
+    /**
+     * Prints the statistics of every member as a table.
+     *
+     * @param out the stream to print to
+     */
+    public void printStats(PrintStream out) {
+        out.printf("%-6s %10s %10s %10s%n", "member", "consumed", "msg/s", "prefetch");
+        for (MemberStats stats : getStats()) {
+            out.printf("%-6d %10d %10.0f %10d%n", stats.member(), stats.consumed(), stats.messagesPerSecond(),
+                    stats.prefetchCount());
+        }
+    }
+
+    /**
+     * Stops the subscriptions and disconnects all members.
+     */
+    @Override
+    public void close() {
+        unsubscribe();
+        disconnect();
+    }
+
+    private void disconnect() {
+        for (AbstractChannel member : members) {
+            member.disconnect();
+        }
+    }
+
+    /**
+     * Statistics of a member since the group subscribed.
+     *
+     * @param member            the index of the member
+     * @param consumed          the number of messages the member handed to the callback or its executor
+     * @param messagesPerSecond the average number of messages handed on per second
+     * @param prefetchCount     the number of received messages which wait for the callback
+     */
+    public record MemberStats(int member, long consumed, double messagesPerSecond, int prefetchCount) {
+    }
+}
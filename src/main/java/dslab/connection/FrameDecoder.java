@@ -0,0 +1,140 @@
+package dslab.connection;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Splits the bytes received from the broker into lines or, once binary framing was negotiated, into length-prefixed
+ * frames.
+ * <p>
+ * A binary frame consists of a header of {@value #HEADER_SIZE} bytes, the opcode and the length of the payload as int,
+ * followed by the payload. Binary framing is only used by channels with a connection of their own, so frames carry no
+ * channel id. Like lines, a frame which is completely contained in the received buffer is passed on as a view of that
+ * buffer. The length prefix allows to skip to the next frame without scanning the payload. A length beyond
+ * {@value #MAX_PAYLOAD_SIZE} bytes is rejected, as the stream cannot be trusted any more.
+ * <p>
+ * The framing is checked once per received buffer. The broker switches to binary framing after it acknowledged the
+ * request, before the client sends its next command, so a buffer never contains both.
+ * <p>
+ * While the consumer is paused, decoding stops after the current line or frame and the rest stays in the buffer.
+ */
+class FrameDecoder {
+
+    /**
+     * Size of the header of a binary frame in bytes.
+     */
+    static final int HEADER_SIZE = 5;
+
+    /**
+     * Offset of the payload length in the header.
+     */
+    static final int LENGTH_OFFSET = 1;
+
+    /**
+     * Maximum size of the payload of a binary frame in bytes.
+     */
+    static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Consumer of the decoded binary frames.
+     */
+    interface FrameHandler {
+
+        /**
+         * @param opcode  the code of the {@link Opcode}
+         * @param payload a view of the payload, only valid during the call
+         */
+        void onFrame(byte opcode, ByteBuffer payload);
+    }
+
+    private final LineDecoder lineDecoder;
+    private final FrameHandler frameHandler;
+    private final BooleanSupplier binary;
+    private final BooleanSupplier paused;
+    private byte[] partial = new byte[1024];
+    private ByteBuffer partialView = ByteBuffer.wrap(partial);
+    private int partialLength;
+
+    /**
+     * @param lineHandler  the consumer of the lines in text framing
+     * @param frameHandler the consumer of the frames in binary framing
+     * @param binary       whether binary framing is currently used
+     * @param paused       whether the consumer currently takes no more lines or frames
+     */
+    FrameDecoder(Consumer<ByteBuffer> lineHandler, FrameHandler frameHandler, BooleanSupplier binary,
+                 BooleanSupplier paused) {
+        this.lineDecoder = new LineDecoder(lineHandler, paused);
+        this.frameHandler = frameHandler;
+        this.binary = binary;
+        this.paused = paused;
+    }
+
+    /**
+     * Consumes the remaining bytes of the buffer and passes every completed line or frame to the handler, until the
+     * consumer is paused. The position of the buffer is left at the first byte which was not consumed.
+     *
+     * @param buffer the received bytes, in read mode
+     * @throws ProtocolException if a frame has an invalid length, the connection has to be closed then
+     */
+    void decode(ByteBuffer buffer) throws ProtocolException {
+        if (binary.getAsBoolean()) {
+            decodeFrames(buffer);
+        } else {
+            lineDecoder.decode(buffer);
+        }
+    }
+
+    private void decodeFrames(ByteBuffer buffer) throws ProtocolException {
+        int limit = buffer.limit();
+
+        while (buffer.hasRemaining() && !paused.getAsBoolean()) {
+            int start = buffer.position();
+
+            if (partialLength == 0 && buffer.remaining() >= HEADER_SIZE) {
+                int end = start + HEADER_SIZE + payloadLength(buffer, start);
+                if (end <= limit) {
+                    buffer.limit(end).position(start + HEADER_SIZE);
+                    frameHandler.onFrame(buffer.get(start), buffer);
+                    buffer.limit(limit).position(end);
+                    continue;
+                }
+            }
+
+            // the frame continues in the next buffer, collect it until it is complete
+            int frameLength = partialLength < HEADER_SIZE
+                    ? HEADER_SIZE
+                    : HEADER_SIZE + payloadLength(partialView, 0);
+            int length = Math.min(frameLength - partialLength, buffer.remaining());
+            appendPartial(buffer, start, length);
+            buffer.position(start + length);
+
+            if (partialLength >= HEADER_SIZE && partialLength == HEADER_SIZE + payloadLength(partialView, 0)) {
+                partialView.limit(partialLength).position(HEADER_SIZE);
+                frameHandler.onFrame(partial[0], partialView);
+                partialView.clear();
+                partialLength = 0;
+            }
+        }
+    }
+
+    private static int payloadLength(ByteBuffer buffer, int start) throws ProtocolException {
+        int length = buffer.getInt(start + LENGTH_OFFSET);
+        if (length < 0 || length > MAX_PAYLOAD_SIZE) {
+            throw new ProtocolException("invalid frame length " + length);
+        }
+        return length;
+    }
+
+    private void appendPartial(ByteBuffer buffer, int from, int length) {
+        if (partialLength + length > partial.length) {
+            byte[] grown = new byte[Math.max(partial.length * 2, partialLength + length)];
+            System.arraycopy(partial, 0, grown, 0, partialLength);
+            partial = grown;
+            partialView = ByteBuffer.wrap(partial);
+        }
+        buffer.get(from, partial, partialLength, length);
+        partialLength += length;
+    }
+}
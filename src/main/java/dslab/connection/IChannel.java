@@ -4,7 +4,11 @@ import dslab.connection.types.ExchangeType;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * A channel establishes a shareable connection to the message broker and provides methods to interact with it.
@@ -53,14 +57,43 @@ public interface IChannel {
      */
     Thread subscribe(Consumer<String> callback);
 
+    /**
+     * Subscribes to the specified queue like {@link #subscribe(Consumer)}, but runs the callback on the lanes of the
+     * executor instead of the background-thread. Messages with the same key are passed to the callback in the order
+     * they were received, messages with different keys may be processed in parallel.
+     *
+     * @param callback the callback to be called when a message is received.
+     * @param keyExtractor extracts the key from a message which determines its lane
+     * @param executor the executor which runs the callback
+     * @return the background-thread that is used to subscribe to the queue
+     */
+    Thread subscribe(Consumer<String> callback, Function<String, ?> keyExtractor, StripedExecutor executor);
+
     /**
      * Returns the next message from the subscribed queue.
-     * This method should block until a message is available.
+     * This method blocks until a message is available, but at most for a short poll timeout so that the calling
+     * subscription thread can react to interrupts.
      *
-     * @return the next message from the subscribed queue
+     * @return the next message from the subscribed queue, or null if no message arrived within the poll timeout
      */
     String getFromSubscription();
 
+    /**
+     * Subscribes to the specified queue like {@link #subscribe(Consumer)}, but passes the messages as bytes without
+     * decoding them to Strings. The buffer is reused once the callback returns, so it has to be copied to be kept.
+     *
+     * @param callback the callback to be called with a read-only buffer of each received message
+     * @return the background-thread that is used to subscribe to the queue
+     */
+    Thread subscribeBytes(Consumer<ByteBuffer> callback);
+
+    /**
+     * Returns the next message from the subscribed queue as bytes, like {@link #getFromSubscription()}.
+     *
+     * @return a buffer wrapping the next message, or null if no message arrived within the poll timeout
+     */
+    ByteBuffer getBytesFromSubscription();
+
         /**
          * Publishes a message with the specified routing key to the exchange.
          *
@@ -71,4 +104,86 @@ public interface IChannel {
          */
     boolean publish(String routingKey, String message);
 
+    /**
+     * Publishes a message with the specified routing key to the exchange without blocking until the broker
+     * acknowledges it. The returned future is completed by a background I/O thread, therefore dependent actions
+     * should be lightweight or be run with one of the {@code *Async} methods of {@link CompletableFuture}.
+     *
+     * @param routingKey the routing key to use for the message
+     * @param message the message to publish
+     *
+     * @return a future completed with true if the message was successfully published, false otherwise
+     */
+    CompletableFuture<Boolean> publishAsync(String routingKey, String message);
+
+    /**
+     * Publishes the bytes as message with the specified routing key to the exchange.
+     *
+     * @param routingKey the routing key to use for the message
+     * @param message the message to publish
+     *
+     * @return true if the message was successfully published, false otherwise
+     * @throws IllegalArgumentException if the message contains line breaks and the channel uses text framing
+     */
+    boolean publish(String routingKey, byte[] message);
+
+    /**
+     * Publishes the remaining bytes of the buffer as message with the specified routing key to the exchange. The
+     * position of the buffer is not changed.
+     *
+     * @param routingKey the routing key to use for the message
+     * @param message the message to publish
+     *
+     * @return true if the message was successfully published, false otherwise
+     * @throws IllegalArgumentException if the message contains line breaks and the channel uses text framing
+     */
+    boolean publish(String routingKey, ByteBuffer message);
+
+    /**
+     * Publishes the remaining bytes of the buffer like {@link #publishAsync(String, String)}. The bytes are copied
+     * before the method returns, so the buffer may be reused right away.
+     *
+     * @param routingKey the routing key to use for the message
+     * @param message the message to publish
+     *
+     * @return a future completed with true if the message was successfully published, false otherwise
+     * @throws IllegalArgumentException if the message contains line breaks and the channel uses text framing
+     */
+    CompletableFuture<Boolean> publishAsync(String routingKey, ByteBuffer message);
+
+    /**
+     * Publishes the messages with the specified routing key to the exchange without waiting for the acknowledgement
+     * of each message before sending the next one. A bounded window of publishes is kept in flight and the replies
+     * of the broker are matched to them in the order the messages were sent.
+     *
+     * @param routingKey the routing key to use for the messages
+     * @param messages the messages to publish
+     *
+     * @return for each message (in the same order) true if it was successfully published, false otherwise
+     */
+    List<Boolean> publishPipelined(String routingKey, List<String> messages);
+
+    /**
+     * Publishes the messages with the specified routing key to the exchange. The whole batch is sent to the broker
+     * with a single write, afterwards the acknowledgements of all messages are collected.
+     *
+     * @param routingKey the routing key to use for the messages
+     * @param messages the messages to publish
+     *
+     * @return for each message (in the same order) true if it was successfully published, false otherwise
+     */
+    List<Boolean> publishBatch(String routingKey, List<String> messages);
+
+    /**
+     * Publishes each message with the routing key at the same index to the exchange. The whole batch is sent to the
+     * broker with a single write, afterwards the acknowledgements of all messages are collected.
+     *
+     * @param routingKeys the routing keys to use for the messages, one per message
+     * @param messages the messages to publish
+     *
+     * @return for each message (in the same order) true if it was successfully published, false otherwise
+     * @throws IllegalArgumentException if the number of routing keys and messages differ
+     */
+    List<Boolean> publishBatch(List<String> routingKeys, List<String> messages);
+
 }
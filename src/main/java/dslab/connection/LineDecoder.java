@@ -0,0 +1,127 @@
+package dslab.connection;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Splits the bytes received from the broker into newline terminated lines by scanning them in place.
+ * <p>
+ * A line which is completely contained in the received buffer is passed on as a view of that buffer, without
+ * copying. Only a line which is spread over several buffers is collected in a reusable array until the rest arrives.
+ * <p>
+ * While the consumer is paused, decoding stops after the current line and the rest stays in the buffer.
+ */
+class LineDecoder {
+
+    private final Consumer<ByteBuffer> handler;
+    private final BooleanSupplier paused;
+    private byte[] partial = new byte[1024];
+    private ByteBuffer partialView = ByteBuffer.wrap(partial);
+    private int partialLength;
+
+    /**
+     * @param handler the consumer of the completed lines. It receives a view of the line without the line
+     *                terminator, which is only valid during the call.
+     */
+    LineDecoder(Consumer<ByteBuffer> handler) {
+        this(handler, () -> false);
+    }
+
+    /**
+     * @param handler the consumer of the completed lines, see {@link #LineDecoder(Consumer)}
+     * @param paused  whether the consumer currently takes no more lines
+     */
+    LineDecoder(Consumer<ByteBuffer> handler, BooleanSupplier paused) {
+        this.handler = handler;
+        this.paused = paused;
+    }
+
+    /**
+     * Consumes the remaining bytes of the buffer and passes every completed line to the handler, until the consumer
+     * is paused. The position of the buffer is left at the first byte which was not consumed.
+     *
+     * @param buffer the received bytes, in read mode
+     */
+    void decode(ByteBuffer buffer) {
+        int limit = buffer.limit();
+
+        while (buffer.hasRemaining() && !paused.getAsBoolean()) {
+            int start = buffer.position();
+            int end = indexOfNewline(buffer, start, limit);
+
+            if (end < 0) {
+                appendPartial(buffer, start, limit);
+                buffer.position(limit);
+                break;
+            }
+
+            if (partialLength > 0) {
+                appendPartial(buffer, start, end);
+                partialView.limit(stripCarriageReturn(partialView, 0, partialLength)).position(0);
+                handler.accept(partialView);
+                partialView.clear();
+                partialLength = 0;
+            } else {
+                buffer.limit(stripCarriageReturn(buffer, start, end));
+                handler.accept(buffer);
+                buffer.limit(limit);
+            }
+            buffer.position(end + 1);
+        }
+    }
+
+    /**
+     * Decodes the remaining bytes of the line as UTF-8 without changing its position.
+     *
+     * @param line the line
+     * @return the line as String
+     */
+    static String toString(ByteBuffer line) {
+        if (line.hasArray()) {
+            return new String(line.array(), line.arrayOffset() + line.position(), line.remaining(),
+                    StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[line.remaining()];
+        line.get(line.position(), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the remaining bytes of the line without changing its position.
+     *
+     * @param line the line
+     * @return the bytes of the line
+     */
+    static byte[] toBytes(ByteBuffer line) {
+        byte[] bytes = new byte[line.remaining()];
+        line.get(line.position(), bytes);
+        return bytes;
+    }
+
+    private static int indexOfNewline(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int stripCarriageReturn(ByteBuffer buffer, int start, int end) {
+        return end > start && buffer.get(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    private void appendPartial(ByteBuffer buffer, int from, int to) {
+        int length = to - from;
+        if (partialLength + length > partial.length) {
+            byte[] grown = new byte[Math.max(partial.length * 2, partialLength + length)];
+            System.arraycopy(partial, 0, grown, 0, partialLength);
+            partial = grown;
+            partialView = ByteBuffer.wrap(partial);
+        }
+        buffer.get(from, partial, partialLength, length);
+        partialLength += length;
+    }
+}
@@ -0,0 +1,77 @@
+package dslab.connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Channel which shares the TCP connection of a {@link Connection} with other logical channels. Opening and closing a
+ * logical channel costs no TCP handshake and no file descriptor.
+ */
+public class LogicalChannel extends AbstractChannel {
+
+    private final Connection connection;
+    private final int id;
+
+    LogicalChannel(Connection connection, int id) {
+        super(connection.getAddress());
+        this.connection = connection;
+        this.id = id;
+    }
+
+    /**
+     * @return the id which tags the lines of this channel on the connection
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Does nothing, the lines of all logical channels share the text framing of their connection. A logical channel
+     * never asks for binary framing, as if the broker refused it.
+     *
+     * @param binaryFraming ignored
+     */
+    @Override
+    public void setBinaryFraming(boolean binaryFraming) {
+    }
+
+    @Override
+    protected void openTransport() throws IOException {
+        connection.register(this);
+        // the broker answers with the greeting of the logical channel
+        connection.write(ByteBuffer.wrap((id + " open\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Counts the bytes of the line and its terminator, the prefix belongs to the connection.
+     */
+    @Override
+    protected void onLine(ByteBuffer line) {
+        getMetrics().received(line.remaining() + 1);
+        super.onLine(line);
+    }
+
+    /**
+     * Pauses or resumes the shared connection, which reads for all of its logical channels.
+     */
+    @Override
+    protected void readPausedChanged(boolean paused) {
+        connection.channelReadPaused(paused);
+    }
+
+    @Override
+    protected void encodePrefix(CommandEncoder encoder) {
+        encoder.append(id).append(' ');
+    }
+
+    @Override
+    protected void write(ByteBuffer frame) throws IOException {
+        connection.write(frame);
+    }
+
+    @Override
+    protected void closeTransport() {
+        connection.unregister(this);
+    }
+}
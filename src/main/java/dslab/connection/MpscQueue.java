@@ -0,0 +1,62 @@
+package dslab.connection;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unbounded lock-free linked queue for any number of producer threads and exactly one consumer thread.
+ * <p>
+ * A producer swaps its node in as the new tail with a single atomic exchange and then links the previous tail to it,
+ * it never retries or waits. The consumer follows the links from the head without any atomic operation. An element is
+ * visible to the consumer once its producer and all producers before it have linked their nodes, so {@link #poll()}
+ * may briefly return null while an {@link #offer(Object)} is in progress.
+ *
+ * @param <E> the type of the elements
+ */
+final class MpscQueue<E> {
+
+    private final AtomicReference<Node<E>> tail;
+    private Node<E> head;
+
+    MpscQueue() {
+        Node<E> stub = new Node<>(null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * Adds the element, may be called by any thread.
+     *
+     * @param element the element to add, not null
+     */
+    void offer(E element) {
+        Node<E> node = new Node<>(element);
+        tail.getAndSet(node).next = node;
+    }
+
+    /**
+     * Removes the oldest element, must only be called by the consumer thread.
+     *
+     * @return the element, or null if no linked element is available
+     */
+    E poll() {
+        Node<E> next = head.next;
+        if (next == null) {
+            return null;
+        }
+        E element = next.element;
+        // the node becomes the new stub, it must not keep the element reachable
+        next.element = null;
+        head = next;
+        return element;
+    }
+
+    private static final class Node<E> {
+
+        private E element;
+        private volatile Node<E> next;
+
+        Node(E element) {
+            this.element = element;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package dslab.connection;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Channel based on a non-blocking {@link SocketChannel}.
+ * <p>
+ * All NIO channels share the thread of one {@link SelectorLoop}, so a client can hold many broker connections without
+ * a thread per socket. Reads and writes go through direct buffers. The read buffer is taken from the
+ * {@link BufferPool} per connection and given back by the selector thread once the connection is closed. The write
+ * buffer is shared by the writing threads and the selector thread and stays with the channel.
+ * <p>
+ * While reading is paused, the channel drops its interest in read events, so the selector thread keeps serving the
+ * other channels. Bytes which were already read stay in the read buffer until reading resumes.
+ */
+public class NioChannel extends AbstractChannel {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String host;
+    private final int port;
+    private final SelectorLoop selectorLoop;
+    private final AtomicReference<PooledBuffer> readBuffer = new AtomicReference<>();
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private FrameDecoder decoder;
+    private SocketChannel socketChannel;
+    private SelectionKey key;
+
+    public NioChannel(String host, int port) {
+        super(host + ":" + port);
+        this.host = host;
+        this.port = port;
+        this.selectorLoop = SelectorLoop.getDefault();
+    }
+
+    @Override
+    protected void openTransport() throws IOException {
+        releaseReadBuffer();
+        readBuffer.set(BufferPool.getDefault().acquire(BUFFER_SIZE));
+        writeBuffer.clear();
+        decoder = newDecoder();
+
+        socketChannel = SocketChannel.open(new InetSocketAddress(host, port));
+        socketChannel.configureBlocking(false);
+        key = selectorLoop.register(socketChannel, this);
+    }
+
+    /**
+     * Copies the bytes into the write buffer and writes as much as the socket accepts. The remainder is written by
+     * the selector thread once the socket becomes writable. If the write buffer is full, the caller waits until the
+     * selector thread has drained it.
+     */
+    @Override
+    protected void write(ByteBuffer frame) throws IOException {
+        synchronized (writeBuffer) {
+            while (frame.hasRemaining()) {
+                while (!writeBuffer.hasRemaining()) {
+                    flush();
+                    if (!writeBuffer.hasRemaining()) {
+                        awaitWritable();
+                    }
+                }
+
+                int length = Math.min(writeBuffer.remaining(), frame.remaining());
+                writeBuffer.put(writeBuffer.position(), frame, frame.position(), length);
+                writeBuffer.position(writeBuffer.position() + length);
+                frame.position(frame.position() + length);
+            }
+            flush();
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        try {
+            writeBuffer.wait(POLL_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for the socket", e);
+        }
+        if (!socketChannel.isOpen()) {
+            throw new IOException("socket closed");
+        }
+    }
+
+    /**
+     * Writes the content of the write buffer to the socket, must hold the lock of the write buffer.
+     */
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        try {
+            socketChannel.write(writeBuffer);
+        } finally {
+            writeBuffer.compact();
+        }
+        selectorLoop.setWriteInterest(key, writeBuffer.position() > 0);
+    }
+
+    /**
+     * Called by the selector thread when the socket can accept more output.
+     */
+    void onWritable() {
+        synchronized (writeBuffer) {
+            try {
+                flush();
+            } catch (IOException e) {
+                onDisconnected();
+            }
+            writeBuffer.notifyAll();
+        }
+    }
+
+    /**
+     * Called by the selector thread when input is available.
+     */
+    void onReadable() {
+        PooledBuffer pooled = readBuffer.get();
+        if (pooled == null) {
+            return;
+        }
+        ByteBuffer buffer = pooled.buffer();
+
+        try {
+            int n = socketChannel.read(buffer);
+            if (n == -1) {
+                onDisconnected();
+                return;
+            }
+            getMetrics().received(n);
+        } catch (IOException e) {
+            onDisconnected();
+            return;
+        }
+
+        decodeBuffered(buffer);
+    }
+
+    /**
+     * Decodes the bytes in the read buffer, keeps what was not consumed and stops reading if the channel paused.
+     * Closes the connection if the broker sent an invalid frame. Called by the selector thread.
+     */
+    private void decodeBuffered(ByteBuffer buffer) {
+        buffer.flip();
+        try {
+            decoder.decode(buffer);
+        } catch (ProtocolException e) {
+            onDisconnected();
+            return;
+        }
+        buffer.compact();
+        if (isReadPaused()) {
+            selectorLoop.setReadInterest(key, false);
+        }
+    }
+
+    @Override
+    protected void readPausedChanged(boolean paused) {
+        if (!paused) {
+            selectorLoop.execute(this, this::resumeReading);
+        }
+    }
+
+    /**
+     * Decodes the bytes left over when reading was paused and reads again. Runs on the selector thread.
+     */
+    private void resumeReading() {
+        PooledBuffer pooled = readBuffer.get();
+        if (pooled == null || isReadPaused()) {
+            return;
+        }
+        decodeBuffered(pooled.buffer());
+        if (!isReadPaused()) {
+            selectorLoop.setReadInterest(key, true);
+        }
+    }
+
+    /**
+     * Called by the selector thread when the connection is lost.
+     */
+    void onDisconnected() {
+        closeTransport();
+        onClosed();
+    }
+
+    @Override
+    protected void closeTransport() {
+        try {
+            if (socketChannel != null) {
+                socketChannel.close();
+            }
+        } catch (IOException ignored) {
+        }
+        releaseReadBuffer();
+    }
+
+    /**
+     * Gives the read buffer back to the pool. The selector thread does it after its current round of callbacks, which
+     * may still read into the buffer.
+     */
+    private void releaseReadBuffer() {
+        PooledBuffer pooled = readBuffer.getAndSet(null);
+        if (pooled != null) {
+            selectorLoop.execute(pooled::release);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package dslab.connection;
+
+/**
+ * The kinds of SMQP frames. In text framing a command is sent as its keyword, in binary framing as the code in the
+ * first byte of the frame.
+ */
+enum Opcode {
+    EXCHANGE(0x01, "exchange"),
+    QUEUE(0x02, "queue"),
+    BIND(0x03, "bind"),
+    SUBSCRIBE(0x04, "subscribe"),
+    PUBLISH(0x05, "publish"),
+    EXIT(0x06, "exit"),
+    /**
+     * Requests binary framing during the handshake. Only ever sent as text.
+     */
+    BINARY(0x10, "binary"),
+    /**
+     * A reply of the broker to a command, the payload is the text of the reply.
+     */
+    REPLY(0x20, null),
+    /**
+     * A message of the subscription, the payload is the message.
+     */
+    DELIVERY(0x21, null);
+
+    private final byte code;
+    private final String keyword;
+
+    Opcode(int code, String keyword) {
+        this.code = (byte) code;
+        this.keyword = keyword;
+    }
+
+    byte code() {
+        return code;
+    }
+
+    String keyword() {
+        return keyword;
+    }
+}
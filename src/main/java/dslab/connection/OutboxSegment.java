@@ -0,0 +1,130 @@
+package dslab.connection;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory-mapped, append-only file of a {@link PublishOutbox}.
+ * <p>
+ * The file starts with a header holding the position up to which the records were acknowledged by the broker,
+ * followed by the records. Each record is prefixed with its length, a length of 0 marks the end of the records since
+ * the file is zero-filled when it is created.
+ */
+final class OutboxSegment {
+
+    static final int HEADER_SIZE = 8;
+    private static final int MAGIC = 0x534D5150;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private int writePosition;
+
+    private OutboxSegment(Path path, MappedByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a new segment file or opens an existing one and finds the end of its records.
+     *
+     * @param path the file of the segment
+     * @param size the size of the file
+     * @return the mapped segment
+     * @throws IOException if the file cannot be mapped or is no segment
+     */
+    static OutboxSegment open(Path path, int size) throws IOException {
+        boolean exists = Files.exists(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            OutboxSegment segment = new OutboxSegment(path,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size())));
+
+            if (!exists || segment.buffer.getInt(0) == 0) {
+                segment.buffer.putInt(0, MAGIC);
+                segment.buffer.putInt(4, HEADER_SIZE);
+            } else if (segment.buffer.getInt(0) != MAGIC) {
+                throw new IOException("not an outbox segment: " + path);
+            }
+
+            int position = HEADER_SIZE;
+            while (position + 4 <= segment.buffer.capacity()) {
+                int length = segment.buffer.getInt(position);
+                if (length <= 0 || position + 4 + length > segment.buffer.capacity()) {
+                    break;
+                }
+                position += 4 + length;
+            }
+            segment.writePosition = position;
+            return segment;
+        }
+    }
+
+    /**
+     * Appends the record if it fits into the segment.
+     *
+     * @param record the encoded record
+     * @return true if the record was appended, false if the segment is full
+     */
+    boolean append(byte[] record) {
+        if (writePosition + 4 + record.length > buffer.capacity()) {
+            return false;
+        }
+        buffer.put(writePosition + 4, record);
+        // the length is written last, it marks the record as complete
+        buffer.putInt(writePosition, record.length);
+        writePosition += 4 + record.length;
+        return true;
+    }
+
+    /**
+     * Reads the record at the position, which must be below {@link #getWritePosition()}.
+     *
+     * @param position the position of the record
+     * @return the encoded record
+     */
+    byte[] read(int position) {
+        byte[] record = new byte[buffer.getInt(position)];
+        buffer.get(position + 4, record);
+        return record;
+    }
+
+    /**
+     * @return the position after the last record
+     */
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * @return the position of the first record which was not acknowledged yet
+     */
+    int getAckedPosition() {
+        return buffer.getInt(4);
+    }
+
+    void setAckedPosition(int position) {
+        buffer.putInt(4, position);
+    }
+
+    /**
+     * Deletes the file, the mapping itself is released once the segment is garbage collected.
+     */
+    void delete() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+        }
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    Path getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,97 @@
+package dslab.connection;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A direct buffer of a {@link BufferPool} with a reference count. Every holder which keeps the buffer beyond the
+ * current call has to {@link #retain()} it and {@link #release()} it afterwards. The buffer must not be used after its
+ * last release, since the pool hands it out again.
+ */
+public final class PooledBuffer {
+
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private final State state;
+    private final Cleaner.Cleanable cleanable;
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, Cleaner cleaner) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.state = new State(pool, cleaner != null ? new Throwable("acquired here") : null);
+        this.cleanable = cleaner != null ? cleaner.register(this, state) : null;
+    }
+
+    /**
+     * @return the pooled buffer, only valid until the last release
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Adds a reference.
+     *
+     * @return this buffer
+     * @throws IllegalStateException if the buffer was already released
+     */
+    public PooledBuffer retain() {
+        int count;
+        do {
+            count = state.references.get();
+            if (count <= 0) {
+                throw new IllegalStateException("buffer was already released");
+            }
+        } while (!state.references.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    /**
+     * Removes a reference and returns the buffer to the pool once no reference is left.
+     *
+     * @throws IllegalStateException if the buffer was already released
+     */
+    public void release() {
+        int count = state.references.decrementAndGet();
+        if (count < 0) {
+            throw new IllegalStateException("buffer was already released");
+        }
+        if (count == 0) {
+            if (cleanable != null) {
+                cleanable.clean();
+            }
+            pool.recycle(buffer);
+        }
+    }
+
+    /**
+     * @return the number of references
+     */
+    public int refCount() {
+        return Math.max(state.references.get(), 0);
+    }
+
+    /**
+     * The part of the buffer which the cleaner of the leak detection may reference. It must not reference the
+     * {@link PooledBuffer} itself, otherwise it would never become unreachable.
+     */
+    private static final class State implements Runnable {
+
+        private final BufferPool pool;
+        private final Throwable acquiredAt;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private State(BufferPool pool, Throwable acquiredAt) {
+            this.pool = pool;
+            this.acquiredAt = acquiredAt;
+        }
+
+        @Override
+        public void run() {
+            if (references.get() > 0) {
+                pool.leaked(acquiredAt);
+            }
+        }
+    }
+}
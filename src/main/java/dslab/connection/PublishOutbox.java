@@ -0,0 +1,288 @@
+package dslab.connection;
+
+import dslab.connection.types.ExchangeType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Stores messages in memory-mapped segment files before they are published, so that they survive an outage of the
+ * broker or a restart of the client.
+ * <p>
+ * {@link #publish} only appends the message to the newest segment and returns immediately. A drainer thread sends the
+ * stored messages with a window of in-flight publishes and advances the acknowledged position of a segment once the
+ * broker confirmed them. A segment is deleted as soon as all of its messages are acknowledged and a newer segment
+ * exists. If a publish fails, the drainer waits and resends everything after the acknowledged position, so messages
+ * are delivered at least once. The channel should have a {@link RecoveryPolicy} to come back after an outage.
+ * <p>
+ * The outbox needs a channel of its own. Publishes go to the exchange declared last on the channel, so the drainer
+ * declares the exchange of the stored messages itself. Consecutive messages to the same exchange are pipelined. Before
+ * the drainer switches to another exchange, it waits until the publishes to the previous one are acknowledged.
+ */
+public class PublishOutbox implements AutoCloseable {
+
+    /**
+     * The default size of a segment file in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final String SUFFIX = ".seg";
+    private static final long RETRY_MILLIS = 100;
+
+    private final Path directory;
+    private final IChannel channel;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final int window;
+    private final List<OutboxSegment> segments = new ArrayList<>();
+    private final Thread drainer;
+    private long nextSegmentId;
+    private volatile boolean running = true;
+
+    /**
+     * Opens the outbox with the default segment size and no limit on the number of segments.
+     *
+     * @param directory the directory of the segment files, existing segments are sent again
+     * @param channel   the connected channel to publish on, which must not be used otherwise
+     * @throws IOException if the directory or the segments cannot be opened
+     */
+    public PublishOutbox(Path directory, IChannel channel) throws IOException {
+        this(directory, channel, DEFAULT_SEGMENT_SIZE, Integer.MAX_VALUE, AbstractChannel.DEFAULT_PUBLISH_WINDOW);
+    }
+
+    /**
+     * @param directory   the directory of the segment files, existing segments are sent again
+     * @param channel     the connected channel to publish on, which must not be used otherwise
+     * @param segmentSize the size of a segment file in bytes
+     * @param maxSegments the number of segments after which {@link #publish} rejects messages
+     * @param window      the number of publishes which may wait for their reply
+     * @throws IOException if the directory or the segments cannot be opened
+     */
+    public PublishOutbox(Path directory, IChannel channel, int segmentSize, int maxSegments, int window)
+            throws IOException {
+        if (segmentSize <= OutboxSegment.HEADER_SIZE || maxSegments < 1 || window < 1) {
+            throw new IllegalArgumentException("invalid outbox configuration");
+        }
+        this.directory = directory;
+        this.channel = channel;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.window = window;
+
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(SUFFIX)).sorted().toList()) {
+                segments.add(OutboxSegment.open(file, segmentSize));
+                String name = file.getFileName().toString();
+                nextSegmentId = Math.max(nextSegmentId, Long.parseLong(name.substring(0, name.length() - 4)) + 1);
+            }
+        }
+        if (segments.isEmpty()) {
+            roll();
+        }
+
+        drainer = new Thread(this::drain, "outbox-drainer-" + directory.getFileName());
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Stores a message, which is published to the exchange by the drainer thread.
+     *
+     * @param exchangeType the type of the exchange
+     * @param exchangeName the name of the exchange
+     * @param routingKey   the routing key of the message
+     * @param message      the message
+     * @return true if the message was stored, false if the outbox is closed, full or the message is too large
+     * @throws IllegalArgumentException if the exchange name or the routing key is longer than 65535 bytes in UTF-8
+     */
+    public synchronized boolean publish(ExchangeType exchangeType, String exchangeName, String routingKey,
+                                        String message) {
+        if (!running) {
+            return false;
+        }
+        byte[] record = encode(exchangeType, exchangeName, routingKey, message);
+        if (!segments.getLast().append(record)) {
+            if (segments.size() >= maxSegments || 4 + record.length > segmentSize - OutboxSegment.HEADER_SIZE) {
+                return false;
+            }
+            try {
+                roll();
+            } catch (IOException e) {
+                return false;
+            }
+            segments.getLast().append(record);
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * @return the number of segment files, including the one currently written
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return true if every stored message was acknowledged by the broker
+     */
+    public synchronized boolean isDrained() {
+        return segments.size() == 1
+                && segments.getFirst().getAckedPosition() == segments.getFirst().getWritePosition();
+    }
+
+    /**
+     * Stops the drainer and writes the segments to disk. Messages which were not acknowledged yet are sent again when
+     * the outbox is opened on the same directory.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        drainer.interrupt();
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            segments.forEach(OutboxSegment::force);
+        }
+    }
+
+    private void roll() throws IOException {
+        segments.add(OutboxSegment.open(directory.resolve("%020d%s".formatted(nextSegmentId++, SUFFIX)), segmentSize));
+    }
+
+    private void drain() {
+        Queue<InFlight> inFlight = new ArrayDeque<>();
+        OutboxSegment segment = null;
+        int position = 0;
+        // the message whose exchange was declared last, null if the channel may have another one
+        StoredMessage declared = null;
+
+        while (running) {
+            StoredMessage record = null;
+            OutboxSegment recordSegment = null;
+            synchronized (this) {
+                if (segment == null) {
+                    segment = segments.getFirst();
+                    position = segment.getAckedPosition();
+                }
+                if (position == segment.getWritePosition() && segment != segments.getLast()) {
+                    // indexOf is -1 if the segment was deleted meanwhile, the next one is the first then
+                    segment = segments.get(segments.indexOf(segment) + 1);
+                    position = segment.getAckedPosition();
+                }
+                if (position < segment.getWritePosition()) {
+                    byte[] bytes = segment.read(position);
+                    StoredMessage next = StoredMessage.decode(bytes);
+                    // otherwise the publishes to the previous exchange are acknowledged first
+                    if (inFlight.isEmpty() || next.sameExchange(declared)) {
+                        record = next;
+                        recordSegment = segment;
+                        position += 4 + bytes.length;
+                    }
+                } else if (inFlight.isEmpty()) {
+                    try {
+                        wait(RETRY_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+
+            if (record != null) {
+                if (!record.sameExchange(declared)) {
+                    declared = channel.exchangeDeclare(record.exchangeType(), record.exchangeName()) ? record : null;
+                }
+                CompletableFuture<Boolean> reply = declared == null
+                        ? CompletableFuture.completedFuture(false)
+                        : channel.publishAsync(record.routingKey(), record.message());
+                inFlight.add(new InFlight(recordSegment, position, reply));
+            }
+
+            // wait for the oldest reply once the window is full or nothing else is left to send
+            while (!inFlight.isEmpty()
+                    && (inFlight.size() >= window || record == null || inFlight.peek().reply.isDone())) {
+                InFlight oldest = inFlight.poll();
+                if (oldest.reply.join()) {
+                    acknowledge(oldest);
+                    continue;
+                }
+                // resend everything after the acknowledged position once the channel is back
+                inFlight.clear();
+                segment = null;
+                declared = null;
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                break;
+            }
+        }
+    }
+
+    private synchronized void acknowledge(InFlight record) {
+        record.segment.setAckedPosition(record.end);
+        while (segments.size() > 1 && segments.getFirst().getAckedPosition() == segments.getFirst().getWritePosition()) {
+            segments.removeFirst().delete();
+        }
+    }
+
+    private static byte[] encode(ExchangeType exchangeType, String exchangeName, String routingKey, String message) {
+        byte[] exchange = exchangeName.getBytes(StandardCharsets.UTF_8);
+        byte[] key = routingKey.getBytes(StandardCharsets.UTF_8);
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        // the lengths are stored as unsigned short, a truncated length would corrupt the segment
+        if (exchange.length > 0xFFFF || key.length > 0xFFFF) {
+            throw new IllegalArgumentException("exchange name and routing key must not exceed 65535 bytes");
+        }
+        return ByteBuffer.allocate(1 + 2 + exchange.length + 2 + key.length + body.length)
+                .put((byte) exchangeType.ordinal())
+                .putShort((short) exchange.length).put(exchange)
+                .putShort((short) key.length).put(key)
+                .put(body)
+                .array();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private record InFlight(OutboxSegment segment, int end, CompletableFuture<Boolean> reply) {
+    }
+
+    private record StoredMessage(ExchangeType exchangeType, String exchangeName, String routingKey, String message) {
+
+        static StoredMessage decode(byte[] record) {
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            ExchangeType exchangeType = ExchangeType.values()[buffer.get()];
+            String exchangeName = readString(buffer);
+            String routingKey = readString(buffer);
+            String message = new String(record, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+            return new StoredMessage(exchangeType, exchangeName, routingKey, message);
+        }
+
+        boolean sameExchange(StoredMessage other) {
+            return other != null && exchangeType == other.exchangeType && exchangeName.equals(other.exchangeName);
+        }
+    }
+}
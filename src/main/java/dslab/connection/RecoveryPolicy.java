@@ -0,0 +1,56 @@
+package dslab.connection;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Defines how a channel reconnects after the connection to the broker was lost.
+ * <p>
+ * The wait before each attempt grows exponentially from the initial to the maximum backoff. It is jittered randomly
+ * between half and the full value, so that many clients do not reconnect to a restarted broker at the same moment.
+ */
+public class RecoveryPolicy {
+
+    /**
+     * Starts with 100 ms, waits at most 10 s and never gives up.
+     */
+    public static final RecoveryPolicy DEFAULT = new RecoveryPolicy(Duration.ofMillis(100), Duration.ofSeconds(10),
+            Integer.MAX_VALUE);
+
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxAttempts;
+
+    /**
+     * @param initialBackoff the wait before the first attempt
+     * @param maxBackoff     the maximum wait before an attempt
+     * @param maxAttempts    the number of attempts before the channel stays closed
+     */
+    public RecoveryPolicy(Duration initialBackoff, Duration maxBackoff, int maxAttempts) {
+        if (initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0 || maxAttempts < 1) {
+            throw new IllegalArgumentException("invalid recovery policy");
+        }
+        this.initialBackoffMillis = initialBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @param attempt the number of the attempt, starting at 0
+     * @return the jittered wait in milliseconds before the attempt
+     */
+    long backoffMillis(int attempt) {
+        long backoff = initialBackoffMillis << Math.min(attempt, 30);
+        if (backoff > maxBackoffMillis || backoff < 0) {
+            backoff = maxBackoffMillis;
+        }
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * @return the number of attempts before the channel stays closed
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
@@ -0,0 +1,85 @@
+package dslab.connection;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Replies of the broker to SMQP commands. Replies are recognised directly on the received bytes without creating
+ * Strings.
+ */
+enum Reply {
+    OK("ok"),
+    OK_SMQP("ok SMQP"),
+    OK_BYE("ok bye"),
+    /**
+     * Any other reply, e.g. an error.
+     */
+    OTHER(null),
+    /**
+     * The connection was closed before the reply arrived.
+     */
+    CLOSED(null);
+
+    private static final byte[] ERROR = "error".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] text;
+
+    Reply(String text) {
+        this.text = text == null ? null : text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Classifies the remaining bytes of the line without changing its position.
+     *
+     * @param line the line without the line terminator
+     * @return the matching reply, {@link #OTHER} if none matches
+     */
+    static Reply parse(ByteBuffer line) {
+        if (matches(line, OK.text)) {
+            return OK;
+        } else if (matches(line, OK_SMQP.text)) {
+            return OK_SMQP;
+        } else if (matches(line, OK_BYE.text)) {
+            return OK_BYE;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Recognises the lines a broker sends as reply, which are the known replies and errors ({@code error} followed by
+     * a space or nothing). Used to tell replies from deliveries on a subscribed text channel, where both may arrive
+     * while a reply is pending. A delivered message of exactly this form is indistinguishable from a reply, only binary
+     * framing separates them reliably.
+     *
+     * @param line the line without the line terminator, its position is not changed
+     * @return true if the line has the form of a reply
+     */
+    static boolean isReply(ByteBuffer line) {
+        if (parse(line) != OTHER) {
+            return true;
+        }
+        if (line.remaining() < ERROR.length) {
+            return false;
+        }
+        int position = line.position();
+        for (int i = 0; i < ERROR.length; i++) {
+            if (line.get(position + i) != ERROR[i]) {
+                return false;
+            }
+        }
+        return line.remaining() == ERROR.length || line.get(position + ERROR.length) == ' ';
+    }
+
+    private static boolean matches(ByteBuffer line, byte[] text) {
+        if (line.remaining() != text.length) {
+            return false;
+        }
+        int position = line.position();
+        for (int i = 0; i < text.length; i++) {
+            if (line.get(position + i) != text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,196 @@
+package dslab.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single background-thread which serves the I/O of any number of {@link NioChannel}s with one {@link Selector}.
+ * <p>
+ * A callback or task which throws only closes the channel it belongs to, the thread keeps serving the others.
+ */
+final class SelectorLoop implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SelectorLoop.class);
+
+    private static SelectorLoop instance;
+
+    private final Selector selector;
+    private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+    private volatile Thread thread;
+
+    private SelectorLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Returns the selector loop shared by all {@link NioChannel}s, starting it on first use.
+     *
+     * @return the shared selector loop
+     */
+    static synchronized SelectorLoop getDefault() {
+        if (instance == null) {
+            try {
+                instance = new SelectorLoop();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Thread thread = new Thread(instance, "smqp-selector");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Registers the non-blocking socket for read events of the channel.
+     *
+     * @param socketChannel the connected socket in non-blocking mode
+     * @param channel       the channel which handles the events
+     * @return the selection key of the registration
+     * @throws IOException if the socket cannot be registered
+     */
+    SelectionKey register(SocketChannel socketChannel, NioChannel channel) throws IOException {
+        if (Thread.currentThread() == thread) {
+            // e.g. connecting in a callback, the selector thread would wait for itself
+            return socketChannel.register(selector, SelectionKey.OP_READ, channel);
+        }
+
+        CompletableFuture<SelectionKey> key = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                key.complete(socketChannel.register(selector, SelectionKey.OP_READ, channel));
+            } catch (ClosedChannelException e) {
+                key.completeExceptionally(e);
+            }
+        });
+
+        try {
+            return key.join();
+        } catch (RuntimeException e) {
+            throw new IOException("could not register channel", e);
+        }
+    }
+
+    /**
+     * Adds or removes the interest in write events of the key.
+     *
+     * @param key      the selection key of the channel
+     * @param writable true if the channel has pending output
+     */
+    void setWriteInterest(SelectionKey key, boolean writable) {
+        setInterest(key, SelectionKey.OP_WRITE, writable);
+    }
+
+    /**
+     * Adds or removes the interest in read events of the key.
+     *
+     * @param key      the selection key of the channel
+     * @param readable true if the channel takes more input
+     */
+    void setReadInterest(SelectionKey key, boolean readable) {
+        setInterest(key, SelectionKey.OP_READ, readable);
+    }
+
+    /**
+     * Changes a single operation atomically, as the read and write interest are changed by different threads.
+     */
+    private void setInterest(SelectionKey key, int op, boolean interested) {
+        if (!key.isValid()) {
+            return;
+        }
+        int previous = interested ? key.interestOpsOr(op) : key.interestOpsAnd(~op);
+        if (((previous & op) != 0) != interested) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs the task on the selector thread, after the current round of callbacks.
+     *
+     * @param task the task
+     */
+    void execute(Runnable task) {
+        execute(null, task);
+    }
+
+    /**
+     * Runs the task of the channel on the selector thread, after the current round of callbacks. The channel is
+     * disconnected if the task throws.
+     *
+     * @param channel the channel the task belongs to, or null
+     * @param task    the task
+     */
+    void execute(NioChannel channel, Runnable task) {
+        tasks.add(new Task(channel, task));
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                return;
+            }
+
+            Task task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.action().run();
+                } catch (RuntimeException e) {
+                    failed(task.channel(), e);
+                }
+            }
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                NioChannel channel = (NioChannel) key.attachment();
+                try {
+                    if (!key.isValid()) {
+                        channel.onDisconnected();
+                        continue;
+                    }
+                    if (key.isWritable()) {
+                        channel.onWritable();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        channel.onReadable();
+                    }
+                } catch (RuntimeException e) {
+                    failed(channel, e);
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * Disconnects the channel whose callback or task threw, so the thread goes on serving the other channels.
+     */
+    private void failed(NioChannel channel, RuntimeException e) {
+        if (channel == null) {
+            LOG.warn("task of the selector thread failed", e);
+            return;
+        }
+        LOG.warn("disconnecting {} after its callback failed", channel.getMetrics().getName(), e);
+        try {
+            channel.onDisconnected();
+        } catch (RuntimeException again) {
+            LOG.warn("could not disconnect {}", channel.getMetrics().getName(), again);
+        }
+    }
+
+    private record Task(NioChannel channel, Runnable action) {
+    }
+}
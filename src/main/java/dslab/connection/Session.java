@@ -0,0 +1,73 @@
+package dslab.connection;
+
+import dslab.connection.types.ExchangeType;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Records the declarations and the subscription of a channel, so that they can be replayed after the channel
+ * reconnected to the broker.
+ */
+final class Session {
+
+    private ExchangeType exchangeType;
+    private String exchangeName;
+    private String queueName;
+    private String subscribedQueue;
+    private final Set<QueueBinding> bindings = new LinkedHashSet<>();
+
+    synchronized void exchangeDeclared(ExchangeType exchangeType, String exchangeName) {
+        this.exchangeType = exchangeType;
+        this.exchangeName = exchangeName;
+    }
+
+    synchronized void queueBound(String queueName, String bindingKey) {
+        this.queueName = queueName;
+        if (exchangeName != null) {
+            bindings.add(new QueueBinding(exchangeType, exchangeName, queueName, bindingKey));
+        }
+    }
+
+    synchronized void subscribed() {
+        subscribedQueue = queueName;
+    }
+
+    synchronized void unsubscribed() {
+        subscribedQueue = null;
+    }
+
+    /**
+     * @return the bindings in the order they were made
+     */
+    synchronized List<QueueBinding> getBindings() {
+        return List.copyOf(bindings);
+    }
+
+    /**
+     * @return the queue of the active subscription, or null if there is none
+     */
+    synchronized String getSubscribedQueue() {
+        return subscribedQueue;
+    }
+
+    synchronized ExchangeType getExchangeType() {
+        return exchangeType;
+    }
+
+    synchronized String getExchangeName() {
+        return exchangeName;
+    }
+
+    synchronized void clear() {
+        exchangeType = null;
+        exchangeName = null;
+        queueName = null;
+        subscribedQueue = null;
+        bindings.clear();
+    }
+
+    record QueueBinding(ExchangeType exchangeType, String exchangeName, String queueName, String bindingKey) {
+    }
+}
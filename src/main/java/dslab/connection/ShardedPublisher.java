@@ -0,0 +1,172 @@
+package dslab.connection;
+
+import dslab.connection.metrics.ChannelMetrics;
+import dslab.connection.types.ExchangeType;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Publishes over several channels to the same broker, so encoding and writing are not bound to a single connection.
+ * <p>
+ * Every publish is sent on the shard chosen by the hash of its routing key. Messages with the same routing key
+ * therefore travel over the same connection and reach the broker in the order they were published, while messages
+ * with different keys are sent in parallel. All shards declare the same exchange.
+ */
+public class ShardedPublisher implements AutoCloseable {
+
+    /**
+     * Number of shards if the config of the broker does not set one.
+     */
+    public static final int DEFAULT_SHARDS = 1;
+
+    private final AbstractChannel[] shards;
+
+    /**
+     * @param host   the host of the broker
+     * @param port   the port of the broker
+     * @param shards the number of connections
+     */
+    public ShardedPublisher(String host, int port, int shards) {
+        this(shards, () -> new Channel(host, port));
+    }
+
+    /**
+     * @param shards         the number of connections
+     * @param channelFactory creates the unconnected channel of each shard
+     */
+    public ShardedPublisher(int shards, Supplier<? extends AbstractChannel> channelFactory) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be at least 1");
+        }
+        this.shards = new AbstractChannel[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = channelFactory.get();
+        }
+    }
+
+    /**
+     * Connects all shards. If one of them cannot be connected, the others are disconnected again.
+     *
+     * @return true if all shards are connected
+     */
+    public boolean connect() {
+        for (int i = 0; i < shards.length; i++) {
+            if (!shards[i].connect()) {
+                for (int j = 0; j < i; j++) {
+                    shards[j].disconnect();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Declares the exchange on every shard, see {@link IChannel#exchangeDeclare(ExchangeType, String)}.
+     *
+     * @return true if all shards declared the exchange
+     */
+    public boolean exchangeDeclare(ExchangeType exchangeType, String exchangeName) {
+        boolean success = true;
+        for (AbstractChannel shard : shards) {
+            success &= shard.exchangeDeclare(exchangeType, exchangeName);
+        }
+        return success;
+    }
+
+    /**
+     * Publishes the message on the shard of its routing key, see {@link IChannel#publish(String, String)}.
+     */
+    public boolean publish(String routingKey, String message) {
+        return shards[shardOf(routingKey)].publish(routingKey, message);
+    }
+
+    /**
+     * Publishes the message on the shard of its routing key, see {@link IChannel#publishAsync(String, String)}.
+     */
+    public CompletableFuture<Boolean> publishAsync(String routingKey, String message) {
+        return shards[shardOf(routingKey)].publishAsync(routingKey, message);
+    }
+
+    /**
+     * @param routingKey the routing key of a message
+     * @return the index of the shard the message is sent on
+     */
+    public int shardOf(String routingKey) {
+        return Striping.indexOf(routingKey, shards.length);
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param index the index of the shard
+     * @return the channel of the shard
+     */
+    public AbstractChannel getShard(int index) {
+        return shards[index];
+    }
+
+    /**
+     * @return the statistics of every shard, in the order of the shards
+     */
+    public List<ShardStats> getStats() {
+        List<ShardStats> stats = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            ChannelMetrics metrics = shards[i].getMetrics();
+            long acknowledged = metrics.getAckCount();
+            stats.add(new ShardStats(i, metrics.getPublishes(), acknowledged, metrics.getBytesOut(),
+                    Duration.ofNanos(acknowledged == 0 ? 0 : metrics.getAckTotalNanos() / acknowledged),
+                    Duration.ofNanos(metrics.getAckMaxNanos())));
+        }
+        return stats;
+    }
+
+    /**
+     * Prints the statistics of every shard as a table.
+     *
+     * @param out the stream to print to
+     */
+    public void printStats(PrintStream out) {
+        out.printf("%-6s %10s %10s %12s %10s %10s%n", "shard", "publishes", "acked", "bytes out", "avg ms",
+                "max ms");
+        for (ShardStats stats : getStats()) {
+            out.printf("%-6d %10d %10d %12d %10.3f %10.3f%n", stats.shard(), stats.publishes(), stats.acknowledged(),
+                    stats.bytesOut(), stats.averageAckRoundTrip().toNanos() / 1e6,
+                    stats.maxAckRoundTrip().toNanos() / 1e6);
+        }
+    }
+
+    /**
+     * Disconnects all shards.
+     */
+    @Override
+    public void close() {
+        for (AbstractChannel shard : shards) {
+            shard.disconnect();
+        }
+    }
+
+    /**
+     * Statistics of a shard since its channel was created.
+     *
+     * @param shard               the index of the shard
+     * @param publishes           the number of publish commands written
+     * @param acknowledged        the number of publishes the broker acknowledged
+     * @param bytesOut            the number of bytes written to the broker
+     * @param averageAckRoundTrip the average time from writing a publish until it was acknowledged
+     * @param maxAckRoundTrip     the longest time from writing a publish until it was acknowledged
+     */
+    public record ShardStats(int shard, long publishes, long acknowledged, long bytesOut, Duration averageAckRoundTrip,
+                             Duration maxAckRoundTrip) {
+    }
+}
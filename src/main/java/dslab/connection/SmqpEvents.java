@@ -0,0 +1,127 @@
+package dslab.connection;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JDK Flight Recorder events of the channels. All events are disabled by default. While they are disabled, the
+ * {@code shouldCommit()} checks fold to false and the unused event objects are removed by escape analysis, so the
+ * channels pay nothing for them. Enable them by name, e.g. {@code dslab.smqp.PublishSent}, in the {@code .jfc} settings
+ * of a recording or with {@link jdk.jfr.Recording#enable(String)}.
+ */
+final class SmqpEvents {
+
+    private SmqpEvents() {
+    }
+
+    /**
+     * @return the size of the message in bytes
+     */
+    static int payloadSize(String message) {
+        return message == null ? 0 : message.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Fields shared by all events. Fields which are unknown for an event stay empty, e.g. deliveries carry no routing
+     * key in SMQP.
+     */
+    @Category("SMQP")
+    @Enabled(false)
+    @StackTrace(false)
+    abstract static class SmqpEvent extends Event {
+
+        @Label("Exchange")
+        String exchange;
+
+        @Label("Routing Key")
+        String routingKey;
+
+        @Label("Payload Size")
+        @DataAmount
+        int payloadSize;
+    }
+
+    @Name("dslab.smqp.Handshake")
+    @Label("SMQP Handshake")
+    static final class Handshake extends SmqpEvent {
+
+        @Label("Broker")
+        String broker;
+
+        @Label("Binary Framing")
+        boolean binary;
+
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("dslab.smqp.ExchangeDeclare")
+    @Label("SMQP Exchange Declare")
+    static final class ExchangeDeclare extends SmqpEvent {
+
+        @Label("Exchange Type")
+        String exchangeType;
+
+        @Label("Success")
+        boolean success;
+    }
+
+    /**
+     * A queue binding, the binding key is recorded as routing key.
+     */
+    @Name("dslab.smqp.QueueBind")
+    @Label("SMQP Queue Bind")
+    static final class QueueBind extends SmqpEvent {
+
+        @Label("Queue")
+        String queue;
+
+        @Label("Success")
+        boolean success;
+    }
+
+    /**
+     * Spans queueing a publish. If the publishing thread becomes the writer, it also spans writing everything queued
+     * until then, which is long if the writer waits for the transport.
+     */
+    @Name("dslab.smqp.PublishSent")
+    @Label("SMQP Publish Sent")
+    static final class PublishSent extends SmqpEvent {
+    }
+
+    @Name("dslab.smqp.AckReceived")
+    @Label("SMQP Ack Received")
+    static final class AckReceived extends SmqpEvent {
+
+        @Label("Round Trip Time")
+        @Timespan
+        long roundTripTime;
+
+        @Label("Acknowledged")
+        boolean acknowledged;
+    }
+
+    /**
+     * A message handed to the subscription by the thread reading the transport.
+     */
+    @Name("dslab.smqp.MessageDelivered")
+    @Label("SMQP Message Delivered")
+    static final class MessageDelivered extends SmqpEvent {
+    }
+
+    /**
+     * Spans the subscription callback of a message.
+     */
+    @Name("dslab.smqp.Callback")
+    @Label("SMQP Callback")
+    static final class Callback extends SmqpEvent {
+    }
+}
@@ -0,0 +1,170 @@
+package dslab.connection;
+
+import dslab.connection.types.WaitStrategy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded lock-free ring buffer for exactly one producer thread and one consumer thread.
+ * <p>
+ * Both sides only publish their own index and read the index of the other side, no locks or CAS operations are
+ * involved. A side which has to wait for the other one does so with the configured {@link WaitStrategy}.
+ *
+ * @param <E> the type of the elements
+ */
+public final class SpscRingBuffer<E> {
+
+    private final Object[] elements;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final boolean parking;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+
+    /**
+     * @param capacity     the maximum number of elements, rounded up to the next power of two
+     * @param waitStrategy the strategy of a side which waits for the other one
+     */
+    public SpscRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.elements = new Object[size];
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        this.parking = waitStrategy == WaitStrategy.PARK;
+    }
+
+    /**
+     * Adds the element if there is space, must only be called by the producer thread.
+     *
+     * @param element the element to add
+     * @return true if the element was added, false if the buffer is full
+     */
+    public boolean offer(E element) {
+        long t = tail.get();
+        if (t - head.get() == elements.length) {
+            return false;
+        }
+        elements[(int) t & mask] = element;
+        advance(tail, t + 1);
+        signal(waitingConsumer);
+        return true;
+    }
+
+    /**
+     * Adds the element, waiting for space as long as the condition holds. Must only be called by the producer thread.
+     *
+     * @param element    the element to add
+     * @param keepWaiting checked while the buffer is full
+     * @return true if the element was added, false if the condition no longer held
+     */
+    public boolean put(E element, BooleanSupplier keepWaiting) {
+        while (!offer(element)) {
+            if (!keepWaiting.getAsBoolean()) {
+                return false;
+            }
+            waitingProducer = Thread.currentThread();
+            if (size() == elements.length) {
+                waitStrategy.idle(Long.MAX_VALUE);
+            }
+            waitingProducer = null;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the oldest element, must only be called by the consumer thread.
+     *
+     * @return the oldest element, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int index = (int) h & mask;
+        E element = (E) elements[index];
+        elements[index] = null;
+        advance(head, h + 1);
+        signal(waitingProducer);
+        return element;
+    }
+
+    /**
+     * Removes the oldest element, waiting at most for the timeout. Must only be called by the consumer thread.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return the oldest element, or null if the buffer stayed empty
+     */
+    public E poll(long timeout, TimeUnit unit) {
+        E element = poll();
+        if (element != null) {
+            return element;
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waitingConsumer = Thread.currentThread();
+        try {
+            while ((element = poll()) == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                waitStrategy.idle(remaining);
+            }
+            return element;
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    /**
+     * Discards all elements, must only be called by the consumer thread.
+     */
+    public void clear() {
+        while (poll() != null) {
+            // discard
+        }
+    }
+
+    /**
+     * @return the number of elements currently in the buffer
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * @return the maximum number of elements
+     */
+    public int capacity() {
+        return elements.length;
+    }
+
+    private void advance(AtomicLong index, long value) {
+        if (parking) {
+            // the full fence orders the index update before reading whether the other side is parked
+            index.set(value);
+        } else {
+            index.lazySet(value);
+        }
+    }
+
+    private void signal(Thread waiting) {
+        if (parking && waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+}
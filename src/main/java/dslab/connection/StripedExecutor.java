@@ -0,0 +1,116 @@
+package dslab.connection;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes tasks on a fixed number of lanes, each served by its own thread.
+ * <p>
+ * Tasks are assigned to a lane by the hash of their key. Tasks with the same key therefore run one after another in
+ * the order they were submitted, while tasks with different keys run in parallel. The number of submitted but not yet
+ * finished tasks is bounded, a submitter blocks while the bound is reached.
+ */
+public class StripedExecutor implements AutoCloseable {
+
+    /**
+     * Default number of submitted but not yet finished tasks per lane.
+     */
+    public static final int DEFAULT_PENDING_PER_LANE = 256;
+
+    private final ExecutorService[] lanes;
+    private final Semaphore pending;
+
+    /**
+     * @param lanes          the number of lanes
+     * @param virtualThreads true to serve the lanes with virtual threads, false for platform threads
+     */
+    public StripedExecutor(int lanes, boolean virtualThreads) {
+        this(lanes, virtualThreads, lanes * DEFAULT_PENDING_PER_LANE);
+    }
+
+    /**
+     * @param lanes          the number of lanes
+     * @param virtualThreads true to serve the lanes with virtual threads, false for platform threads
+     * @param maxPending     the maximum number of submitted but not yet finished tasks over all lanes
+     */
+    public StripedExecutor(int lanes, boolean virtualThreads, int maxPending) {
+        if (lanes < 1 || maxPending < 1) {
+            throw new IllegalArgumentException("lanes and max pending must be at least 1");
+        }
+
+        ThreadFactory threadFactory = virtualThreads
+                ? Thread.ofVirtual().name("striped-lane-", 0).factory()
+                : Thread.ofPlatform().daemon().name("striped-lane-", 0).factory();
+
+        this.lanes = new ExecutorService[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+        this.pending = new Semaphore(maxPending);
+    }
+
+    /**
+     * Runs the task on the lane of the key, blocking while the maximum number of pending tasks is reached.
+     *
+     * @param key  the key which determines the lane, null is assigned to the first lane
+     * @param task the task to run
+     * @throws RejectedExecutionException if the executor is closed or the caller is interrupted while waiting
+     */
+    public void execute(Object key, Runnable task) {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("interrupted while waiting for a free slot", e);
+        }
+
+        try {
+            lanes[laneOf(key)].execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    pending.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @param key the key of a task
+     * @return the index of the lane the task is assigned to
+     */
+    public int laneOf(Object key) {
+        return Striping.indexOf(key, lanes.length);
+    }
+
+    /**
+     * @return the number of lanes
+     */
+    public int getLanes() {
+        return lanes.length;
+    }
+
+    /**
+     * Stops accepting tasks and waits for the submitted ones to finish.
+     */
+    @Override
+    public void close() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        try {
+            for (ExecutorService lane : lanes) {
+                lane.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package dslab.connection;
+
+/**
+ * Assigns keys to a fixed number of stripes, e.g. the lanes of a {@link StripedExecutor} or the shards of a
+ * {@link ShardedPublisher}, so equal keys always end up on the same stripe.
+ */
+final class Striping {
+
+    private Striping() {
+    }
+
+    /**
+     * @param key     the key, or null
+     * @param stripes the number of stripes
+     * @return the index of the stripe of the key, 0 for null
+     */
+    static int indexOf(Object key, int stripes) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        // spread the higher bits, as in HashMap
+        return Math.floorMod(h ^ (h >>> 16), stripes);
+    }
+}
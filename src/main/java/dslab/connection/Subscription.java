@@ -1,45 +1,71 @@
 package dslab.connection;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.function.Consumer;
 
+/**
+ * Background-thread of a subscription. Blocks on the channel until a message arrives and passes it to the callback
+ * right away. The thread stops once it is interrupted or the connection to the broker is closed.
+ */
 public class Subscription extends Thread {
 
-    private final Channel channel;
+    private final AbstractChannel channel;
     private final Consumer<String> callback;
+    private final Consumer<ByteBuffer> bytesCallback;
     public Subscription(IChannel channel, Consumer<String> callback) {
-        this.channel = (Channel) channel;
+        this(channel, callback, null);
+    }
+
+    private Subscription(IChannel channel, Consumer<String> callback, Consumer<ByteBuffer> bytesCallback) {
+        this.channel = (AbstractChannel) channel;
         this.callback = callback;
+        this.bytesCallback = bytesCallback;
+    }
+
+    /**
+     * Creates a subscription which passes the messages as bytes, without decoding them.
+     *
+     * @param channel  the subscribed channel
+     * @param callback receives a read-only view of the pooled message, which is only valid during the call
+     * @return the subscription thread, not started yet
+     */
+    public static Subscription ofBytes(IChannel channel, Consumer<ByteBuffer> callback) {
+        return new Subscription(channel, null, callback);
     }
 
     @Override
     public void run() {
-        /*while (!isInterrupted()){
-            String msg = channel.getFromSubscription();
-            if (msg != null){
-                callback.accept(msg);
+        try {
+            while (!isInterrupted() && !channel.isClosed()){
+                PooledBuffer msg = channel.pollDelivery();
+                if (msg == null){
+                    continue;
+                }
+                try {
+                    if (isInterrupted()) {
+                        continue;
+                    }
+                    SmqpEvents.Callback event = new SmqpEvents.Callback();
+                    int size = msg.buffer().remaining();
+                    event.begin();
+                    long start = System.nanoTime();
+                    if (callback != null) {
+                        callback.accept(LineDecoder.toString(msg.buffer()));
+                    } else {
+                        bytesCallback.accept(msg.buffer().asReadOnlyBuffer());
+                    }
+                    channel.getMetrics().callbackCompleted(System.nanoTime() - start);
+                    if (event.shouldCommit()) {
+                        event.exchange = channel.exchangeName;
+                        event.payloadSize = size;
+                        event.commit();
+                    }
+                } finally {
+                    msg.release();
+                }
             }
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-
-            }
-
-        }
-
-         */
-        while (!isInterrupted()){
-            String msg = channel.getFromSubscription();
-            if (msg != null){
-                callback.accept(msg);
-            }
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                break;
-            }
-
+        } finally {
+            channel.endSubscription();
         }
     }
 }
-
@@ -0,0 +1,65 @@
+package dslab.connection;
+
+import dslab.connection.types.ExchangeType;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Remembers the exchange, queue and bindings which were declared on the current connection of a channel.
+ * <p>
+ * In SMQP, {@code exchange} and {@code queue} also select the exchange and queue the following commands refer to.
+ * Declaring them again is therefore only a no-op if they are already selected, while a binding of the selected queue
+ * to the selected exchange never has to be repeated.
+ */
+final class TopologyCache {
+
+    private ExchangeType exchangeType;
+    private String exchangeName;
+    private String queueName;
+    private final Set<Binding> bindings = new HashSet<>();
+
+    synchronized boolean isCurrentExchange(ExchangeType exchangeType, String exchangeName) {
+        return this.exchangeType == exchangeType && exchangeName.equals(this.exchangeName);
+    }
+
+    synchronized void exchangeDeclared(ExchangeType exchangeType, String exchangeName, boolean success) {
+        this.exchangeType = success ? exchangeType : null;
+        this.exchangeName = success ? exchangeName : null;
+    }
+
+    synchronized boolean isCurrentQueue(String queueName) {
+        return queueName.equals(this.queueName);
+    }
+
+    synchronized void queueDeclared(String queueName, boolean success) {
+        this.queueName = success ? queueName : null;
+    }
+
+    /**
+     * @return true if the selected queue is already bound to the selected exchange with the key
+     */
+    synchronized boolean isBound(String bindingKey) {
+        return exchangeName != null && queueName != null
+                && bindings.contains(new Binding(exchangeName, queueName, bindingKey));
+    }
+
+    synchronized void bound(String bindingKey) {
+        if (exchangeName != null && queueName != null) {
+            bindings.add(new Binding(exchangeName, queueName, bindingKey));
+        }
+    }
+
+    /**
+     * Forgets everything, e.g. because the connection was closed or re-established.
+     */
+    synchronized void clear() {
+        exchangeType = null;
+        exchangeName = null;
+        queueName = null;
+        bindings.clear();
+    }
+
+    private record Binding(String exchangeName, String queueName, String bindingKey) {
+    }
+}
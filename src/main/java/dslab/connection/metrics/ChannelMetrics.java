@@ -0,0 +1,236 @@
+package dslab.connection.metrics;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Meters of a single channel, or of all channels to a broker. Every update of a channel is also applied to the meters
+ * of its broker, so the totals of a broker include channels which are closed by now. All meters are striped counters,
+ * recording never blocks and costs a few nanoseconds.
+ */
+public final class ChannelMetrics implements ChannelMetricsMXBean {
+
+    private final String broker;
+    private final String name;
+    private final ChannelMetrics parent;
+    private final Set<ChannelMetrics> channels = ConcurrentHashMap.newKeySet();
+    private final LongAdder publishes = new LongAdder();
+    private final Timer ackRoundTrip = new Timer();
+    private final Timer handshake = new Timer();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder deliveries = new LongAdder();
+    private final Timer callback = new Timer();
+    private final LongAdder reconnects = new LongAdder();
+    private volatile LongSupplier prefetchDepth = () -> 0;
+
+    /**
+     * @param broker the host and port of the broker
+     * @param name   the name of the channel, or null for the meters of the broker
+     * @param parent the meters of the broker, or null for the meters of the broker
+     */
+    ChannelMetrics(String broker, String name, ChannelMetrics parent) {
+        this.broker = broker;
+        this.name = name;
+        this.parent = parent;
+    }
+
+    /**
+     * @return the name of the channel, or null if these are the meters of a broker
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param count the number of publish commands written
+     */
+    public void published(int count) {
+        publishes.add(count);
+        if (parent != null) {
+            parent.published(count);
+        }
+    }
+
+    /**
+     * @param sentNanos the {@link System#nanoTime()} at which the acknowledged publish was written
+     */
+    public void acknowledged(long sentNanos) {
+        long nanos = System.nanoTime() - sentNanos;
+        ackRoundTrip.record(nanos);
+        if (parent != null) {
+            parent.ackRoundTrip.record(nanos);
+        }
+    }
+
+    /**
+     * @param nanos the time from opening the transport until the channel was ready for commands
+     */
+    public void connected(long nanos) {
+        handshake.record(nanos);
+        if (parent != null) {
+            parent.connected(nanos);
+        }
+    }
+
+    /**
+     * @param bytes the number of bytes read from the broker
+     */
+    public void received(long bytes) {
+        bytesIn.add(bytes);
+        if (parent != null) {
+            parent.received(bytes);
+        }
+    }
+
+    /**
+     * @param bytes the number of bytes written to the broker
+     */
+    public void sent(long bytes) {
+        bytesOut.add(bytes);
+        if (parent != null) {
+            parent.sent(bytes);
+        }
+    }
+
+    /**
+     * Counts a message which was handed to the subscription.
+     */
+    public void delivered() {
+        deliveries.increment();
+        if (parent != null) {
+            parent.delivered();
+        }
+    }
+
+    /**
+     * @param nanos the time the subscription callback took for a message
+     */
+    public void callbackCompleted(long nanos) {
+        callback.record(nanos);
+        if (parent != null) {
+            parent.callbackCompleted(nanos);
+        }
+    }
+
+    /**
+     * Counts a successful recovery of the connection.
+     */
+    public void reconnected() {
+        reconnects.increment();
+        if (parent != null) {
+            parent.reconnected();
+        }
+    }
+
+    /**
+     * @param prefetchDepth supplies the number of received messages which wait for the subscription callback
+     */
+    public void setPrefetchDepth(LongSupplier prefetchDepth) {
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    ChannelMetrics getParent() {
+        return parent;
+    }
+
+    Set<ChannelMetrics> getChannels() {
+        return channels;
+    }
+
+    boolean addChannel(ChannelMetrics channel) {
+        return channels.add(channel);
+    }
+
+    boolean removeChannel(ChannelMetrics channel) {
+        return channels.remove(channel);
+    }
+
+    @Override
+    public String getBroker() {
+        return broker;
+    }
+
+    @Override
+    public long getPublishes() {
+        return publishes.sum();
+    }
+
+    @Override
+    public long getAckCount() {
+        return ackRoundTrip.getCount();
+    }
+
+    @Override
+    public long getAckTotalNanos() {
+        return ackRoundTrip.getTotalNanos();
+    }
+
+    @Override
+    public long getAckMaxNanos() {
+        return ackRoundTrip.getMaxNanos();
+    }
+
+    @Override
+    public long getHandshakeCount() {
+        return handshake.getCount();
+    }
+
+    @Override
+    public long getHandshakeTotalNanos() {
+        return handshake.getTotalNanos();
+    }
+
+    @Override
+    public long getHandshakeMaxNanos() {
+        return handshake.getMaxNanos();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getDeliveries() {
+        return deliveries.sum();
+    }
+
+    @Override
+    public long getCallbackCount() {
+        return callback.getCount();
+    }
+
+    @Override
+    public long getCallbackTotalNanos() {
+        return callback.getTotalNanos();
+    }
+
+    @Override
+    public long getCallbackMaxNanos() {
+        return callback.getMaxNanos();
+    }
+
+    /**
+     * @return the buffered messages of this channel, or of all registered channels for the meters of a broker
+     */
+    @Override
+    public long getPrefetchDepth() {
+        if (parent == null) {
+            return channels.stream().mapToLong(ChannelMetrics::getPrefetchDepth).sum();
+        }
+        return prefetchDepth.getAsLong();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+}
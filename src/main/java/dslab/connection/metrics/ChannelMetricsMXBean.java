@@ -0,0 +1,39 @@
+package dslab.connection.metrics;
+
+/**
+ * Management interface of {@link ChannelMetrics}. Durations are in nanoseconds.
+ */
+public interface ChannelMetricsMXBean {
+
+    String getBroker();
+
+    long getPublishes();
+
+    long getAckCount();
+
+    long getAckTotalNanos();
+
+    long getAckMaxNanos();
+
+    long getHandshakeCount();
+
+    long getHandshakeTotalNanos();
+
+    long getHandshakeMaxNanos();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getDeliveries();
+
+    long getCallbackCount();
+
+    long getCallbackTotalNanos();
+
+    long getCallbackMaxNanos();
+
+    long getPrefetchDepth();
+
+    long getReconnects();
+}
@@ -0,0 +1,248 @@
+package dslab.connection.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keeps the {@link ChannelMetrics} of all connected channels, grouped by broker, and exposes them as MBeans in the
+ * domain {@value #DOMAIN} and in the OpenMetrics text format, optionally over HTTP.
+ * <p>
+ * The meters of a broker are created with its first channel and stay registered, the meters of a channel are
+ * registered while it is connected.
+ */
+public final class MetricsRegistry {
+
+    public static final String DOMAIN = "dslab.connection";
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    public static final String PATH = "/metrics";
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsRegistry.class);
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry(ManagementFactory.getPlatformMBeanServer());
+
+    private final MBeanServer mBeanServer;
+    private final Map<String, ChannelMetrics> brokers = new ConcurrentSkipListMap<>();
+    private final AtomicInteger nextChannel = new AtomicInteger(1);
+
+    /**
+     * @param mBeanServer the server to register the MBeans with, or null to not register any
+     */
+    public MetricsRegistry(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    /**
+     * @return the registry of all channels, which registers its MBeans with the platform MBean server
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates the meters of a new channel. They are only exposed once the channel is registered.
+     *
+     * @param broker the host and port of the broker
+     * @return the meters of the channel
+     */
+    public ChannelMetrics newChannel(String broker) {
+        ChannelMetrics parent = brokers.get(broker);
+        if (parent == null) {
+            // computeIfAbsent of a skip list map may create the value more than once, only the winner is registered
+            ChannelMetrics created = new ChannelMetrics(broker, null, null);
+            parent = brokers.putIfAbsent(broker, created);
+            if (parent == null) {
+                registerMBean(created);
+                parent = created;
+            }
+        }
+        return new ChannelMetrics(broker, "channel-" + nextChannel.getAndIncrement(), parent);
+    }
+
+    /**
+     * Exposes the meters of a channel, does nothing if they are exposed already.
+     *
+     * @param channel the meters of the channel
+     */
+    public void register(ChannelMetrics channel) {
+        if (channel.getParent().addChannel(channel)) {
+            registerMBean(channel);
+        }
+    }
+
+    /**
+     * Stops exposing the meters of a channel. The totals of its broker keep its counts.
+     *
+     * @param channel the meters of the channel
+     */
+    public void unregister(ChannelMetrics channel) {
+        if (channel.getParent().removeChannel(channel)) {
+            try {
+                if (mBeanServer != null) {
+                    mBeanServer.unregisterMBean(objectName(channel));
+                }
+            } catch (JMException e) {
+                LOG.warn("could not unregister the metrics of {}", channel.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * @param broker the host and port of the broker
+     * @return the meters of all channels to the broker, or null if there never was a channel
+     */
+    public ChannelMetrics getBroker(String broker) {
+        return brokers.get(broker);
+    }
+
+    private void registerMBean(ChannelMetrics metrics) {
+        if (mBeanServer == null) {
+            return;
+        }
+        try {
+            mBeanServer.registerMBean(metrics, objectName(metrics));
+        } catch (JMException e) {
+            LOG.warn("could not register the metrics of {}", metrics.getBroker(), e);
+        }
+    }
+
+    private static ObjectName objectName(ChannelMetrics metrics) throws JMException {
+        String broker = ObjectName.quote(metrics.getBroker());
+        if (metrics.getName() == null) {
+            return new ObjectName(DOMAIN + ":type=Broker,broker=" + broker);
+        }
+        return new ObjectName(DOMAIN + ":type=Channel,broker=" + broker + ",name=" + metrics.getName());
+    }
+
+    /**
+     * Renders all meters in the OpenMetrics text format. Every broker is a sample with a {@code broker} label, every
+     * registered channel a sample with an additional {@code channel} label. Durations are in seconds.
+     *
+     * @return the exposition, terminated by {@code # EOF}
+     */
+    public String scrape() {
+        List<ChannelMetrics> all = new ArrayList<>();
+        for (ChannelMetrics broker : brokers.values()) {
+            all.add(broker);
+            all.addAll(broker.getChannels());
+        }
+
+        StringBuilder out = new StringBuilder();
+        counter(out, all, "smqp_publishes", null, "Publish commands written to the broker",
+                ChannelMetrics::getPublishes);
+        summary(out, all, "smqp_ack_round_trip", "Time from writing a publish until the broker acknowledged it",
+                ChannelMetrics::getAckCount, ChannelMetrics::getAckTotalNanos, ChannelMetrics::getAckMaxNanos);
+        summary(out, all, "smqp_handshake", "Time from opening the transport until the channel was ready",
+                ChannelMetrics::getHandshakeCount, ChannelMetrics::getHandshakeTotalNanos,
+                ChannelMetrics::getHandshakeMaxNanos);
+        counter(out, all, "smqp_received", "bytes", "Bytes read from the broker", ChannelMetrics::getBytesIn);
+        counter(out, all, "smqp_sent", "bytes", "Bytes written to the broker", ChannelMetrics::getBytesOut);
+        counter(out, all, "smqp_deliveries", null, "Messages handed to the subscription",
+                ChannelMetrics::getDeliveries);
+        summary(out, all, "smqp_callback", "Time the subscription callback took per message",
+                ChannelMetrics::getCallbackCount, ChannelMetrics::getCallbackTotalNanos,
+                ChannelMetrics::getCallbackMaxNanos);
+        family(out, "smqp_prefetch_depth", "gauge", null, "Received messages waiting for the subscription callback");
+        for (ChannelMetrics metrics : all) {
+            sample(out, "smqp_prefetch_depth", metrics, Long.toString(metrics.getPrefetchDepth()));
+        }
+        counter(out, all, "smqp_reconnects", null, "Successful recoveries of the connection",
+                ChannelMetrics::getReconnects);
+        out.append("# EOF\n");
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, List<ChannelMetrics> all, String name, String unit, String help,
+                                ToLongFunction<ChannelMetrics> value) {
+        String family = unit == null ? name : name + "_" + unit;
+        family(out, family, "counter", unit, help);
+        for (ChannelMetrics metrics : all) {
+            sample(out, family + "_total", metrics, Long.toString(value.applyAsLong(metrics)));
+        }
+    }
+
+    private static void summary(StringBuilder out, List<ChannelMetrics> all, String name, String help,
+                                ToLongFunction<ChannelMetrics> count, ToLongFunction<ChannelMetrics> totalNanos,
+                                ToLongFunction<ChannelMetrics> maxNanos) {
+        String family = name + "_seconds";
+        family(out, family, "summary", "seconds", help);
+        for (ChannelMetrics metrics : all) {
+            sample(out, family + "_count", metrics, Long.toString(count.applyAsLong(metrics)));
+            sample(out, family + "_sum", metrics, seconds(totalNanos.applyAsLong(metrics)));
+        }
+
+        String max = name + "_max_seconds";
+        family(out, max, "gauge", "seconds", "Maximum of: " + help);
+        for (ChannelMetrics metrics : all) {
+            sample(out, max, metrics, seconds(maxNanos.applyAsLong(metrics)));
+        }
+    }
+
+    private static void family(StringBuilder out, String name, String type, String unit, String help) {
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        if (unit != null) {
+            out.append("# UNIT ").append(name).append(' ').append(unit).append('\n');
+        }
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, ChannelMetrics metrics, String value) {
+        out.append(name).append("{broker=\"").append(escape(metrics.getBroker())).append('"');
+        if (metrics.getName() != null) {
+            out.append(",channel=\"").append(escape(metrics.getName())).append('"');
+        }
+        out.append("} ").append(value).append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    /**
+     * Starts an HTTP server which serves {@link #scrape()} at {@value #PATH}.
+     *
+     * @param address the address to listen on, port 0 for any free port
+     * @return the started server, which the caller has to stop
+     * @throws IOException if the address cannot be bound
+     */
+    public HttpServer startHttpServer(InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext(PATH, this::handle);
+        server.start();
+        return server;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
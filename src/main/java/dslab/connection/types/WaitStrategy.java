@@ -0,0 +1,36 @@
+package dslab.connection.types;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Enum for the different strategies a thread uses while it waits for the other side of a ring buffer.
+ */
+public enum WaitStrategy {
+    /**
+     * Busy spins on the CPU, lowest latency but occupies a core while waiting.
+     */
+    SPIN,
+    /**
+     * Yields the CPU to other threads between checks.
+     */
+    YIELD,
+    /**
+     * Parks the thread until the other side signals progress, frees the CPU but adds the wake-up latency.
+     */
+    PARK;
+
+    private static final long MAX_PARK_NANOS = 1_000_000;
+
+    /**
+     * Waits once before the condition is checked again.
+     *
+     * @param remainingNanos the time left until the caller gives up
+     */
+    public void idle(long remainingNanos) {
+        switch (this) {
+            case SPIN -> Thread.onSpinWait();
+            case YIELD -> Thread.yield();
+            case PARK -> LockSupport.parkNanos(Math.min(remainingNanos, MAX_PARK_NANOS));
+        }
+    }
+}
@@ -0,0 +1,961 @@
+package dslab;
+
+import dslab.config.Config;
+import dslab.connection.AbstractChannel;
+import dslab.connection.BufferPool;
+import dslab.connection.Channel;
+import dslab.connection.ChannelPool;
+import dslab.connection.Connection;
+import dslab.connection.ConsumerGroup;
+import dslab.connection.LogicalChannel;
+import dslab.connection.NioChannel;
+import dslab.connection.PublishOutbox;
+import dslab.connection.RecoveryPolicy;
+import dslab.connection.ShardedPublisher;
+import dslab.connection.StripedExecutor;
+import dslab.connection.metrics.MetricsRegistry;
+import dslab.connection.types.ExchangeType;
+import dslab.connection.types.WaitStrategy;
+import dslab.mock.MessageBrokerServer;
+import dslab.mock.NioMessageBroker;
+import dslab.util.RandomStringGenerator;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.IntStream;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Timeout.ThreadMode.SEPARATE_THREAD;
+
+public class ChannelTest {
+
+    private final String exchangeName = "exchange-%s".formatted(RandomStringGenerator.getSecureString());
+    private final String queueName = "queue-%s".formatted(RandomStringGenerator.getSecureString());
+    private final String routingKey = "key-%s".formatted(RandomStringGenerator.getSecureString());
+
+    @BeforeAll
+    public static void beforeAll() {
+        Awaitility.setDefaultPollDelay(1, MILLISECONDS);
+        Awaitility.setDefaultTimeout(1500, MILLISECONDS);
+    }
+
+    @Timeout(value = 10000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void subscription_delivers_each_message_without_waiting_for_more() throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            Channel subscriber = connectedChannel();
+            Channel publisher = connectedChannel();
+
+            BlockingQueue<String> received = new LinkedBlockingQueue<>();
+            assertThat(subscriber.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            assertThat(subscriber.queueBind(queueName, routingKey)).isTrue();
+            Thread subscription = subscriber.subscribe(received::add);
+            assertThat(subscription).isNotNull();
+
+            assertThat(publisher.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+
+            // nothing follows a message until it was received, so it must not wait for further input; the latency
+            // itself is measured by ChannelBenchmark.deliveryLatency
+            for (int i = 0; i < 200; i++) {
+                assertThat(publisher.publish(routingKey, "message-" + i)).isTrue();
+                assertThat(received.poll(1000, MILLISECONDS)).isEqualTo("message-" + i);
+            }
+            assertThat(received).isEmpty();
+
+            subscription.interrupt();
+            subscription.join(1000);
+            assertThat(subscription.isAlive()).isFalse();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void pipelined_publish_acknowledges_every_message_in_order() throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            Channel publisher = connectedChannel();
+            publisher.setPublishWindow(16);
+            assertThat(publisher.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+
+            List<String> messages = IntStream.range(0, 500).mapToObj(i -> "message-" + i).toList();
+            List<Boolean> results = publisher.publishPipelined(routingKey, messages);
+
+            assertThat(results).hasSize(messages.size()).containsOnly(true);
+            await().untilAsserted(() -> assertThat(mb.getLogs().getLines()).containsSubsequence(
+                    messages.stream().map(m -> "publish %s %s".formatted(routingKey, m)).toList()));
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void async_publish_completes_futures_when_acknowledged() throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            Channel publisher = connectedChannel();
+            assertThat(publisher.exchangeDeclare(ExchangeType.TOPIC, exchangeName)).isTrue();
+
+            List<CompletableFuture<Boolean>> replies = IntStream.range(0, 200)
+                    .mapToObj(i -> publisher.publishAsync(routingKey, "message-" + i))
+                    .toList();
+
+            CompletableFuture.allOf(replies.toArray(CompletableFuture[]::new)).get(2000, MILLISECONDS);
+            assertThat(replies).allSatisfy(reply -> assertThat(reply.join()).isTrue());
+        }
+    }
+
+    @Timeout(value = 10000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void threads_share_one_channel_for_publishing(boolean nio) throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            AbstractChannel channel = nio ? new NioChannel("localhost", 20000) : new Channel("localhost", 20000);
+            await().until(channel::connect);
+            assertThat(channel.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+
+            int threads = 16;
+            int messagesPerThread = 100;
+            List<Boolean> results = new CopyOnWriteArrayList<>();
+            List<Thread> publishers = IntStream.range(0, threads).mapToObj(t -> Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < messagesPerThread; i++) {
+                    // synchronous and asynchronous publishes are mixed, their replies must not be swapped
+                    results.add(i % 2 == 0
+                            ? channel.publish(routingKey, "thread-%d-%d".formatted(t, i))
+                            : channel.publishAsync(routingKey, "thread-%d-%d".formatted(t, i)).join());
+                }
+            })).toList();
+            for (Thread publisher : publishers) {
+                publisher.join();
+            }
+
+            assertThat(results).hasSize(threads * messagesPerThread).containsOnly(true);
+            await().untilAsserted(() -> assertThat(mb.getLogs().getLines())
+                    .filteredOn(line -> line.startsWith("publish ")).hasSize(threads * messagesPerThread));
+            List<String> lines = mb.getLogs().getLines();
+            for (int t = 0; t < threads; t++) {
+                String prefix = "publish %s thread-%d-".formatted(routingKey, t);
+                assertThat(lines.stream().filter(line -> line.startsWith(prefix)).toList()).containsExactlyElementsOf(
+                        IntStream.range(0, messagesPerThread).mapToObj(i -> prefix + i).toList());
+            }
+            channel.disconnect();
+        }
+    }
+
+    @Timeout(value = 10000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void sharded_publisher_keeps_order_per_routing_key() throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false);
+             ShardedPublisher publisher = new ShardedPublisher("localhost", 20000, 4)) {
+            await().until(publisher::connect);
+            assertThat(publisher.exchangeDeclare(ExchangeType.TOPIC, exchangeName)).isTrue();
+
+            List<String> keys = IntStream.range(0, 16).mapToObj(i -> routingKey + "." + i).toList();
+            int messagesPerKey = 50;
+            List<CompletableFuture<Boolean>> replies = new ArrayList<>();
+            for (int i = 0; i < messagesPerKey; i++) {
+                for (String key : keys) {
+                    replies.add(publisher.publishAsync(key, "message-" + i));
+                }
+            }
+            CompletableFuture.allOf(replies.toArray(CompletableFuture[]::new)).get(5000, MILLISECONDS);
+            assertThat(replies).allSatisfy(reply -> assertThat(reply.join()).isTrue());
+
+            List<String> lines = mb.getLogs().getLines();
+            for (String key : keys) {
+                String prefix = "publish %s ".formatted(key);
+                assertThat(lines.stream().filter(line -> line.startsWith(prefix)).toList()).containsExactlyElementsOf(
+                        IntStream.range(0, messagesPerKey).mapToObj(i -> prefix + "message-" + i).toList());
+            }
+
+            List<ShardedPublisher.ShardStats> stats = publisher.getStats();
+            assertThat(stats).hasSize(4);
+            for (ShardedPublisher.ShardStats shard : stats) {
+                long keysOfShard = keys.stream().filter(key -> publisher.shardOf(key) == shard.shard()).count();
+                assertThat(shard.publishes()).isEqualTo(keysOfShard * messagesPerKey);
+                assertThat(shard.acknowledged()).isEqualTo(shard.publishes());
+            }
+            assertThat(stats).filteredOn(shard -> shard.publishes() > 0).hasSizeGreaterThan(1);
+        }
+    }
+
+    @Timeout(value = 10000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void consumer_group_shares_a_queue_between_members(boolean executor) throws Exception {
+        // unlike the MessageBrokerServer mock, this broker hands the messages of a queue to its subscribers in turns
+        try (NioMessageBroker broker = new NioMessageBroker(0);
+             ConsumerGroup group = new ConsumerGroup("localhost", broker.getPort(), 3);
+             StripedExecutor lanes = new StripedExecutor(2, false)) {
+            assertThat(group.connect()).isTrue();
+            assertThat(group.queueBind(ExchangeType.DIRECT, exchangeName, queueName, routingKey)).isTrue();
+
+            Set<String> received = ConcurrentHashMap.newKeySet();
+            assertThat(executor
+                    ? group.subscribe(received::add, task -> lanes.execute(null, task))
+                    : group.subscribe(received::add)).isTrue();
+
+            Channel publisher = new Channel("localhost", broker.getPort());
+            assertThat(publisher.connect()).isTrue();
+            assertThat(publisher.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+            List<String> messages = IntStream.range(0, 300).mapToObj(i -> "message-" + i).toList();
+            assertThat(publisher.publishBatch(routingKey, messages)).containsOnly(true);
+
+            await().until(() -> received.size() == messages.size());
+            assertThat(received).containsExactlyInAnyOrderElementsOf(messages);
+            assertThat(group.getStats()).extracting(ConsumerGroup.MemberStats::consumed).containsOnly(100L);
+            publisher.disconnect();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void consumer_group_disconnects_all_members_if_one_cannot_subscribe() throws Exception {
+        try (NioMessageBroker broker = new NioMessageBroker(0);
+             ConsumerGroup group = new ConsumerGroup("localhost", broker.getPort(), 3)) {
+            assertThat(group.connect()).isTrue();
+            assertThat(group.queueBind(ExchangeType.DIRECT, exchangeName, queueName, routingKey)).isTrue();
+            assertThat(broker.getConnectionCount()).isEqualTo(3);
+
+            group.getMember(2).disconnect();
+            assertThat(group.subscribe(message -> {
+            })).isFalse();
+
+            // the first two members were subscribed and must not keep receiving their share of the queue
+            await().until(() -> broker.getConnectionCount() == 0);
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void channel_pool_lends_handshaken_channels() throws Exception {
+        ChannelPool.Options options = new ChannelPool.Options(1, 2, 2, Duration.ofMinutes(1), Duration.ofMillis(100));
+        try (MessageBrokerServer mb = new MessageBrokerServer(false);
+             ChannelPool pool = ComponentFactory.createChannelPool(new Config("client-0"), options)) {
+            await().until(() -> pool.prewarm("broker-0"));
+            assertThat(pool.getStats("broker-0").idle()).isEqualTo(1);
+
+            AbstractChannel first = pool.borrow("broker-0");
+            AbstractChannel second = pool.borrow("broker-0");
+            assertThat(first).isNotNull();
+            assertThat(second).isNotNull().isNotSameAs(first);
+            assertThat(first.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+            assertThat(first.publish(routingKey, "pooled")).isTrue();
+
+            // both channels are borrowed, the next borrower gives up after the borrow timeout
+            assertThat(pool.borrow("broker-0")).isNull();
+            ChannelPool.PoolStats stats = pool.getStats("broker-0");
+            assertThat(stats.borrowed()).isEqualTo(2);
+            assertThat(stats.timeouts()).isEqualTo(1);
+            assertThat(stats.maxWait()).isGreaterThanOrEqualTo(Duration.ofMillis(100));
+
+            pool.giveBack(first);
+            assertThat(pool.borrow("broker-0")).isSameAs(first);
+            pool.giveBack(first);
+
+            // a subscribed connection keeps receiving messages and is not lent again
+            assertThat(second.queueBind(queueName, routingKey)).isTrue();
+            Thread subscription = second.subscribe(message -> { });
+            subscription.interrupt();
+            subscription.join();
+            pool.giveBack(second);
+            assertThat(pool.getStats("broker-0")).satisfies(s -> {
+                assertThat(s.idle()).isEqualTo(1);
+                assertThat(s.created()).isEqualTo(2);
+                assertThat(s.destroyed()).isEqualTo(1);
+            });
+            assertThat(pool.borrow("broker-0")).isSameAs(first);
+            // no pool is kept for an unknown broker, the evictor would try to fill it forever
+            assertThat(pool.borrow("unknown")).isNull();
+            assertThat(pool.prewarm("unknown")).isFalse();
+            assertThat(pool.getStats("unknown")).isNull();
+            assertThat(pool.getStats()).extracting(ChannelPool.PoolStats::brokerId).containsExactly("broker-0");
+            assertThatThrownBy(() -> pool.giveBack(second)).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void channel_pool_evicts_idle_channels_above_minimum() throws Exception {
+        ChannelPool.Options options = new ChannelPool.Options(1, 4, 4, Duration.ofMillis(50), Duration.ofSeconds(1));
+        try (MessageBrokerServer mb = new MessageBrokerServer(false);
+             ChannelPool pool = ComponentFactory.createChannelPool(new Config("client-0"), options)) {
+            await().until(() -> pool.prewarm("broker-0"));
+            List<AbstractChannel> channels = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                channels.add(pool.borrow("broker-0"));
+            }
+            assertThat(channels).doesNotContainNull();
+            channels.forEach(pool::giveBack);
+
+            // the expired channels are disconnected down to the minimum, which is refilled meanwhile if needed
+            await().untilAsserted(() -> assertThat(pool.getStats("broker-0")).satisfies(s -> {
+                assertThat(s.idle()).isEqualTo(1);
+                assertThat(s.destroyed()).isEqualTo(s.created() - 1);
+            }));
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void batch_larger_than_one_frame_is_written_in_order(boolean nio) throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            AbstractChannel publisher = nio ? new NioChannel("localhost", 20000) : new Channel("localhost", 20000);
+            await().until(publisher::connect);
+            assertThat(publisher.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+
+            // the calling thread writes the first frame, a writer thread the rest
+            String padding = "x".repeat(200);
+            List<String> messages = IntStream.range(0, 2000).mapToObj(i -> padding + i).toList();
+            assertThat(publisher.publishBatch(routingKey, messages)).containsOnly(true);
+            assertThat(mb.getLogs().getLines()).containsSubsequence(
+                    messages.stream().map(m -> "publish %s %s".formatted(routingKey, m)).toList());
+            publisher.disconnect();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void batch_publish_collects_one_ack_per_message() throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            Channel publisher = connectedChannel();
+            assertThat(publisher.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+
+            List<String> messages = IntStream.range(0, 100).mapToObj(i -> "message-" + i).toList();
+            List<String> routingKeys = IntStream.range(0, 100).mapToObj(i -> routingKey + "-" + i % 3).toList();
+
+            assertThat(publisher.publishBatch(routingKey, messages)).hasSize(100).containsOnly(true);
+            assertThat(publisher.publishBatch(routingKeys, messages)).hasSize(100).containsOnly(true);
+            await().untilAsserted(() -> assertThat(mb.getLogs().getLines()).contains(
+                    "publish %s %s".formatted(routingKey, "message-99"),
+                    "publish %s-%d %s".formatted(routingKey, 99 % 3, "message-99")));
+        }
+    }
+
+    @Timeout(value = 10000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void nio_channels_share_one_selector_thread() throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            NioChannel subscriber = new NioChannel("localhost", 20000);
+            await().until(subscriber::connect);
+
+            BlockingQueue<String> received = new LinkedBlockingQueue<>();
+            assertThat(subscriber.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            assertThat(subscriber.queueBind(queueName, routingKey)).isTrue();
+            Thread subscription = subscriber.subscribe(received::add);
+            assertThat(subscription).isNotNull();
+
+            int threadsBefore = Thread.activeCount();
+            List<NioChannel> publishers = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                NioChannel publisher = new NioChannel("localhost", 20000);
+                assertThat(publisher.connect()).isTrue();
+                publishers.add(publisher);
+            }
+            // the mock broker starts one thread per connection, the client none
+            assertThat(Thread.activeCount() - threadsBefore).isLessThanOrEqualTo(publishers.size());
+
+            for (int i = 0; i < publishers.size(); i++) {
+                assertThat(publishers.get(i).publish(routingKey, "message-" + i)).isTrue();
+            }
+            for (int i = 0; i < publishers.size(); i++) {
+                assertThat(received.poll(1000, MILLISECONDS)).isEqualTo("message-" + i);
+            }
+
+            publishers.forEach(NioChannel::disconnect);
+            subscription.interrupt();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void logical_channels_share_one_connection() throws Exception {
+        try (
+                MessageBrokerServer mb = new MessageBrokerServer(true);
+                Connection connection = new Connection("localhost", 20000)
+        ) {
+            await().until(connection::open);
+
+            LogicalChannel subscriber = connection.createChannel();
+            // logical channels keep the text framing of their connection
+            subscriber.setBinaryFraming(true);
+            assertThat(subscriber.connect()).isTrue();
+            assertThat(subscriber.isBinary()).isFalse();
+            BlockingQueue<String> received = new LinkedBlockingQueue<>();
+            assertThat(subscriber.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            assertThat(subscriber.queueBind(queueName, routingKey)).isTrue();
+            assertThat(subscriber.subscribe(received::add)).isNotNull();
+
+            List<LogicalChannel> publishers = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                LogicalChannel publisher = connection.createChannel();
+                assertThat(publisher.connect()).isTrue();
+                publishers.add(publisher);
+            }
+            for (int i = 0; i < publishers.size(); i++) {
+                assertThat(publishers.get(i).publish(routingKey, "message-" + i)).isTrue();
+                assertThat(received.poll(1000, MILLISECONDS)).isEqualTo("message-" + i);
+            }
+            publishers.forEach(LogicalChannel::disconnect);
+
+            assertThat(connection.isOpen()).isTrue();
+            assertThat(mb.getLogs().getLines()).containsOnlyOnce("client connected");
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void connection_opens_again_after_it_was_lost() throws Exception {
+        try (Connection connection = new Connection("localhost", 20000)) {
+            try (MessageBrokerServer mb = new MessageBrokerServer(true)) {
+                await().until(connection::open);
+            }
+            await().until(() -> !connection.isOpen());
+
+            try (MessageBrokerServer mb = new MessageBrokerServer(true)) {
+                await().until(connection::open);
+                LogicalChannel channel = connection.createChannel();
+                assertThat(channel.connect()).isTrue();
+                assertThat(channel.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+            }
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    public void slow_callback_is_fed_from_bounded_prefetch_buffer(WaitStrategy waitStrategy) throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            Channel subscriber = connectedChannel();
+            Channel publisher = connectedChannel();
+            subscriber.setPrefetch(8, waitStrategy);
+
+            List<String> received = new CopyOnWriteArrayList<>();
+            List<Integer> occupancy = new CopyOnWriteArrayList<>();
+            assertThat(subscriber.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            assertThat(subscriber.queueBind(queueName, routingKey)).isTrue();
+            Thread subscription = subscriber.subscribe(msg -> {
+                occupancy.add(subscriber.getPrefetchCount());
+                received.add(msg);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertThat(subscription).isNotNull();
+
+            List<String> messages = IntStream.range(0, 50).mapToObj(i -> "message-" + i).toList();
+            assertThat(publisher.publishBatch(routingKey, messages)).containsOnly(true);
+
+            await().atMost(3000, MILLISECONDS).until(() -> received.size() == messages.size());
+            assertThat(received).containsExactlyElementsOf(messages);
+            assertThat(occupancy).allSatisfy(count -> assertThat(count).isLessThanOrEqualTo(8));
+            subscription.interrupt();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @ParameterizedTest
+    @ValueSource(strings = {"socket", "nio", "logical"})
+    public void callback_publishes_on_its_own_channel_while_prefetch_is_full(String transport) throws Exception {
+        // the MessageBrokerServer mock would deliver the forwarded messages back to the channel
+        try (
+                NioMessageBroker broker = new NioMessageBroker(0);
+                Connection connection = new Connection("localhost", broker.getPort())
+        ) {
+            AbstractChannel channel = switch (transport) {
+                case "nio" -> new NioChannel("localhost", broker.getPort());
+                case "logical" -> {
+                    await().until(connection::open);
+                    yield connection.createChannel();
+                }
+                default -> new Channel("localhost", broker.getPort());
+            };
+            await().until(channel::connect);
+            channel.setPrefetch(4, WaitStrategy.PARK);
+
+            List<Boolean> forwarded = new CopyOnWriteArrayList<>();
+            assertThat(channel.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+            assertThat(channel.queueBind(queueName, routingKey)).isTrue();
+            // the reply of every publish arrives behind further messages for the full prefetch buffer
+            Thread subscription = channel.subscribe(msg -> forwarded.add(channel.publish("forwarded", msg)));
+            assertThat(subscription).isNotNull();
+
+            Channel publisher = new Channel("localhost", broker.getPort());
+            assertThat(publisher.connect()).isTrue();
+            assertThat(publisher.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+            List<String> messages = IntStream.range(0, 100).mapToObj(i -> "message-" + i).toList();
+            assertThat(publisher.publishBatch(routingKey, messages)).containsOnly(true);
+
+            await().atMost(3000, MILLISECONDS).until(() -> forwarded.size() == messages.size());
+            assertThat(forwarded).containsOnly(true);
+            subscription.interrupt();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void slow_nio_subscriber_does_not_stall_other_nio_channels() throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            NioChannel subscriber = new NioChannel("localhost", 20000);
+            await().until(subscriber::connect);
+            subscriber.setPrefetch(2, WaitStrategy.PARK);
+
+            CountDownLatch release = new CountDownLatch(1);
+            List<String> received = new CopyOnWriteArrayList<>();
+            assertThat(subscriber.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            assertThat(subscriber.queueBind(queueName, routingKey)).isTrue();
+            Thread subscription = subscriber.subscribe(msg -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.add(msg);
+            });
+            assertThat(subscription).isNotNull();
+
+            // the acknowledgements are read by the selector thread which also serves the blocked subscriber
+            NioChannel publisher = new NioChannel("localhost", 20000);
+            assertThat(publisher.connect()).isTrue();
+            assertThat(publisher.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            List<String> messages = IntStream.range(0, 200).mapToObj(i -> "message-" + i).toList();
+            assertThat(publisher.publishBatch(routingKey, messages)).containsOnly(true);
+
+            release.countDown();
+            await().atMost(3000, MILLISECONDS).until(() -> received.size() == messages.size());
+            assertThat(received).containsExactlyElementsOf(messages);
+
+            publisher.disconnect();
+            subscription.interrupt();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void striped_dispatch_keeps_order_per_key(boolean virtualThreads) throws Exception {
+        try (
+                MessageBrokerServer mb = new MessageBrokerServer(false);
+                StripedExecutor executor = new StripedExecutor(4, virtualThreads)
+        ) {
+            Channel subscriber = connectedChannel();
+            Channel publisher = connectedChannel();
+
+            Map<String, List<String>> receivedPerKey = new ConcurrentHashMap<>();
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+            assertThat(subscriber.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            assertThat(subscriber.queueBind(queueName, routingKey)).isTrue();
+            Thread subscription = subscriber.subscribe(msg -> {
+                threads.add(Thread.currentThread());
+                receivedPerKey.computeIfAbsent(msg.split("-")[0], k -> new CopyOnWriteArrayList<>()).add(msg);
+            }, msg -> msg.split("-")[0], executor);
+            assertThat(subscription).isNotNull();
+
+            List<String> messages = IntStream.range(0, 200).mapToObj(i -> "key" + i % 8 + "-" + i).toList();
+            assertThat(publisher.publishBatch(routingKey, messages)).containsOnly(true);
+
+            await().untilAsserted(() -> assertThat(receivedPerKey.values().stream().mapToInt(List::size).sum())
+                    .isEqualTo(messages.size()));
+            receivedPerKey.forEach((key, received) -> assertThat(received)
+                    .containsExactlyElementsOf(messages.stream().filter(m -> m.startsWith(key + "-")).toList()));
+            assertThat(threads).hasSizeGreaterThan(1).doesNotContain(subscription);
+            subscription.interrupt();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void repeated_declarations_are_sent_once_per_connection() throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            Channel channel = connectedChannel();
+
+            for (int i = 0; i < 3; i++) {
+                assertThat(channel.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+                assertThat(channel.queueBind(queueName, routingKey)).isTrue();
+                assertThat(channel.publish(routingKey, "message-" + i)).isTrue();
+            }
+            channel.disconnect();
+            assertThat(channel.connect()).isTrue();
+            assertThat(channel.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+
+            String exchange = "exchange direct %s".formatted(exchangeName);
+            await().untilAsserted(() -> assertThat(mb.getLogs().getLines()).containsExactly(
+                    exchange, "queue " + queueName, "bind " + routingKey,
+                    "publish %s message-0".formatted(routingKey),
+                    "publish %s message-1".formatted(routingKey),
+                    "publish %s message-2".formatted(routingKey),
+                    "exit", exchange));
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void channel_recovers_session_after_broker_restart() throws Exception {
+        Channel subscriber = new Channel("localhost", 20000);
+        subscriber.setRecoveryPolicy(new RecoveryPolicy(Duration.ofMillis(10), Duration.ofMillis(100), 100));
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        Thread subscription;
+
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            await().until(subscriber::connect);
+            assertThat(subscriber.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            assertThat(subscriber.queueBind(queueName, routingKey)).isTrue();
+            subscription = subscriber.subscribe(received::add);
+            assertThat(subscription).isNotNull();
+
+            assertThat(connectedChannel().publish(routingKey, "before")).isTrue();
+            assertThat(received.poll(1000, MILLISECONDS)).isEqualTo("before");
+        }
+
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            await().until(() -> subscriber.getRecoveryTimes().size() == 1);
+            assertThat(subscriber.isRecovering()).isFalse();
+            assertThat(subscription.isAlive()).isTrue();
+            assertThat(mb.getLogs().getLines()).containsExactly(
+                    "exchange fanout " + exchangeName, "queue " + queueName, "bind " + routingKey, "subscribe");
+
+            assertThat(connectedChannel().publish(routingKey, "after")).isTrue();
+            assertThat(received.poll(1000, MILLISECONDS)).isEqualTo("after");
+            subscription.interrupt();
+            subscriber.disconnect();
+        }
+    }
+
+    @Timeout(value = 10000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void subscription_survives_repeatedly_dropped_connections() throws Exception {
+        Channel subscriber = new Channel("localhost", 20000);
+        subscriber.setRecoveryPolicy(new RecoveryPolicy(Duration.ofMillis(1), Duration.ofMillis(20), 1000));
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        Thread subscription = null;
+
+        for (int i = 0; i < 5; i++) {
+            try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+                if (subscription == null) {
+                    await().until(subscriber::connect);
+                    assertThat(subscriber.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+                    assertThat(subscriber.queueBind(queueName, routingKey)).isTrue();
+                    subscription = subscriber.subscribe(received::add);
+                    assertThat(subscription).isNotNull();
+                } else {
+                    int recoveries = i;
+                    await().until(() -> subscriber.getRecoveryTimes().size() == recoveries);
+                    // the subscription must not have seen the channel closed while the connection was lost
+                    assertThat(subscription.isAlive()).isTrue();
+                    await().until(() -> mb.getLogs().getLines().contains("subscribe"));
+                }
+
+                assertThat(connectedChannel().publish(routingKey, "message-" + i)).isTrue();
+                assertThat(received.poll(1000, MILLISECONDS)).isEqualTo("message-" + i);
+            }
+        }
+        subscription.interrupt();
+        subscriber.disconnect();
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void recovery_ends_on_disconnect_and_after_the_last_attempt() throws Exception {
+        Channel disconnected = new Channel("localhost", 20000);
+        disconnected.setRecoveryPolicy(new RecoveryPolicy(Duration.ofMillis(10), Duration.ofMillis(100), 1000));
+        Channel exhausted = new Channel("localhost", 20000);
+        // slow enough to still be recovering when the test checks it
+        exhausted.setRecoveryPolicy(new RecoveryPolicy(Duration.ofMillis(200), Duration.ofMillis(200), 3));
+
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            await().until(disconnected::connect);
+            await().until(exhausted::connect);
+        }
+        await().until(() -> disconnected.isRecovering() && exhausted.isRecovering());
+
+        disconnected.disconnect();
+        assertThat(disconnected.isRecovering()).isFalse();
+        await().until(() -> !exhausted.isRecovering());
+        assertThat(exhausted.getRecoveryTimes()).isEmpty();
+        for (Channel channel : List.of(disconnected, exhausted)) {
+            ObjectName name = new ObjectName(MetricsRegistry.DOMAIN + ":type=Channel,broker="
+                    + ObjectName.quote("localhost:20000") + ",name=" + channel.getMetrics().getName());
+            assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name)).isFalse();
+        }
+
+        try (MessageBrokerServer mb = new MessageBrokerServer(true)) {
+            Thread.sleep(300);
+            assertThat(mb.getLogs().getLines()).doesNotContain("client connected");
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void outbox_keeps_messages_during_broker_outage(@TempDir Path directory) throws Exception {
+        Channel publisher = new Channel("localhost", 20000);
+        publisher.setRecoveryPolicy(new RecoveryPolicy(Duration.ofMillis(10), Duration.ofMillis(100), 100));
+        List<String> messages = IntStream.range(0, 50).mapToObj(i -> "message-" + i).toList();
+
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            await().until(publisher::connect);
+        }
+
+        try (PublishOutbox outbox = new PublishOutbox(directory, publisher, 256, 100, 8)) {
+            for (String message : messages) {
+                assertThat(outbox.publish(ExchangeType.DIRECT, exchangeName, routingKey, message)).isTrue();
+            }
+            assertThat(outbox.getSegmentCount()).isGreaterThan(1);
+
+            try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+                await().until(outbox::isDrained);
+                assertThat(outbox.getSegmentCount()).isEqualTo(1);
+                assertThat(mb.getLogs().getLines()).containsSubsequence(
+                        messages.stream().map(m -> "publish %s %s".formatted(routingKey, m)).toList());
+                publisher.disconnect();
+            }
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void outbox_declares_the_exchange_once_per_run_of_messages(@TempDir Path directory) throws Exception {
+        try (
+                MessageBrokerServer mb = new MessageBrokerServer(false);
+                PublishOutbox outbox = new PublishOutbox(directory, connectedChannel())
+        ) {
+            String other = exchangeName + "-other";
+            List<String> exchanges = List.of(exchangeName, exchangeName, other, other, other, exchangeName);
+            for (int i = 0; i < exchanges.size(); i++) {
+                assertThat(outbox.publish(ExchangeType.DIRECT, exchanges.get(i), routingKey, "message-" + i)).isTrue();
+            }
+
+            await().until(outbox::isDrained);
+            assertThat(mb.getLogs().getLines()).containsExactly(
+                    "exchange direct " + exchangeName,
+                    "publish %s message-0".formatted(routingKey), "publish %s message-1".formatted(routingKey),
+                    "exchange direct " + other,
+                    "publish %s message-2".formatted(routingKey), "publish %s message-3".formatted(routingKey),
+                    "publish %s message-4".formatted(routingKey),
+                    "exchange direct " + exchangeName,
+                    "publish %s message-5".formatted(routingKey));
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void outbox_rejects_names_longer_than_their_length_field(@TempDir Path directory) throws Exception {
+        try (
+                MessageBrokerServer mb = new MessageBrokerServer(false);
+                PublishOutbox outbox = new PublishOutbox(directory, connectedChannel())
+        ) {
+            String tooLong = "x".repeat(0x10000);
+            assertThatThrownBy(() -> outbox.publish(ExchangeType.DIRECT, tooLong, routingKey, "message"))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> outbox.publish(ExchangeType.DIRECT, exchangeName, tooLong, "message"))
+                    .isInstanceOf(IllegalArgumentException.class);
+
+            // nothing was stored, the next message is the first one in the segment
+            assertThat(outbox.publish(ExchangeType.DIRECT, exchangeName, routingKey, "message")).isTrue();
+            await().until(outbox::isDrained);
+            assertThat(mb.getLogs().getLines()).containsExactly(
+                    "exchange direct " + exchangeName, "publish %s message".formatted(routingKey));
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    public void binary_framing_carries_messages_with_spaces(boolean nio) throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            AbstractChannel subscriber = nio ? new NioChannel("localhost", 20000) : new Channel("localhost", 20000);
+            subscriber.setBinaryFraming(true);
+            await().until(subscriber::connect);
+            assertThat(subscriber.isBinary()).isTrue();
+
+            BlockingQueue<String> received = new LinkedBlockingQueue<>();
+            assertThat(subscriber.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            assertThat(subscriber.queueBind(queueName, routingKey)).isTrue();
+            Thread subscription = subscriber.subscribe(received::add);
+
+            List<String> messages = List.of("hello binary world", "grüße\nüber zwei Zeilen", "x".repeat(100_000));
+            for (String message : messages) {
+                assertThat(subscriber.publish(routingKey, message)).isTrue();
+            }
+            for (String message : messages) {
+                assertThat(received.poll(1000, MILLISECONDS)).isEqualTo(message);
+            }
+            assertThat(mb.getLogs().getLines()).startsWith(
+                    "exchange fanout " + exchangeName, "queue " + queueName, "bind " + routingKey, "subscribe",
+                    "publish " + routingKey + " hello binary world");
+
+            subscription.interrupt();
+            subscriber.disconnect();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    public void binary_framing_fails_routing_keys_longer_than_their_length_field(boolean nio) throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            AbstractChannel publisher = nio ? new NioChannel("localhost", 20000) : new Channel("localhost", 20000);
+            publisher.setBinaryFraming(true);
+            await().until(publisher::connect);
+            assertThat(publisher.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+
+            // three bytes per char in UTF-8, so the key is too long although it has fewer than 65536 chars
+            String tooLong = "€".repeat(0x6000);
+            assertThat(publisher.publish(tooLong, "message")).isFalse();
+            assertThat(publisher.publishAsync(tooLong, "message").join()).isFalse();
+            assertThat(publisher.publish(routingKey, "message")).isTrue();
+            assertThat(mb.getLogs().getLines()).containsExactly(
+                    "exchange direct " + exchangeName, "publish %s message".formatted(routingKey));
+            publisher.disconnect();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void binary_framing_falls_back_to_text() throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false, false)) {
+            Channel publisher = new Channel("localhost", 20000);
+            publisher.setBinaryFraming(true);
+            await().until(publisher::connect);
+
+            assertThat(publisher.isBinary()).isFalse();
+            assertThat(publisher.exchangeDeclare(ExchangeType.DIRECT, exchangeName)).isTrue();
+            assertThat(publisher.publish(routingKey, "text")).isTrue();
+            await().untilAsserted(() -> assertThat(mb.getLogs().getLines()).containsExactly(
+                    "exchange direct " + exchangeName, "publish " + routingKey + " text"));
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    public void byte_payloads_are_delivered_unchanged(boolean binary) throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_BYTES_PER_CLASS, true);
+            Channel subscriber = new Channel("localhost", 20000);
+            Channel publisher = new Channel("localhost", 20000);
+            subscriber.setBufferPool(pool);
+            subscriber.setBinaryFraming(binary);
+            publisher.setBinaryFraming(binary);
+            await().until(subscriber::connect);
+            await().until(publisher::connect);
+
+            BlockingQueue<ByteBuffer> received = new LinkedBlockingQueue<>();
+            assertThat(subscriber.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            assertThat(subscriber.queueBind(queueName, routingKey)).isTrue();
+            // the delivered buffer is pooled and has to be copied to be kept
+            Thread subscription = subscriber.subscribeBytes(b -> received.add(ByteBuffer.allocate(b.remaining()).put(b).flip()));
+
+            // a text line has to be valid UTF-8 without line breaks, a binary frame may carry any bytes
+            byte[] message = binary
+                    ? new byte[]{0, 1, '\n', (byte) 0xFF, ' ', (byte) 0xC3}
+                    : "grüße".getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(16).put(new byte[3]).put(message).flip().position(3);
+            assertThat(publisher.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            assertThat(publisher.publish(routingKey, buffer)).isTrue();
+            assertThat(buffer.position()).isEqualTo(3);
+            assertThat(publisher.publish(routingKey, message)).isTrue();
+
+            assertThat(received.poll(1000, MILLISECONDS)).isEqualTo(ByteBuffer.wrap(message));
+            assertThat(received.poll(1000, MILLISECONDS)).isEqualTo(ByteBuffer.wrap(message));
+            await().until(() -> pool.getOutstanding() == 0);
+            assertThat(pool.getHits() + pool.getMisses()).isEqualTo(2);
+            if (!binary) {
+                assertThatThrownBy(() -> publisher.publish(routingKey, new byte[]{'a', '\n'}))
+                        .isInstanceOf(IllegalArgumentException.class);
+            }
+
+            subscription.interrupt();
+            subscriber.disconnect();
+            publisher.disconnect();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @ParameterizedTest
+    @CsvSource({"false, false", "false, true", "true, false", "true, true"})
+    public void subscribed_channel_publishes_and_consumes_concurrently(boolean nio, boolean binary) throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            AbstractChannel channel = nio ? new NioChannel("localhost", 20000) : new Channel("localhost", 20000);
+            channel.setBinaryFraming(binary);
+            await().until(channel::connect);
+
+            BlockingQueue<String> received = new LinkedBlockingQueue<>();
+            assertThat(channel.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            assertThat(channel.queueBind(queueName, routingKey)).isTrue();
+            Thread subscription = channel.subscribe(received::add);
+
+            // the broker delivers every message back to the channel while later publishes still wait for their reply
+            List<String> messages = IntStream.range(0, 300).mapToObj(i -> "message-" + i).toList();
+            List<CompletableFuture<Boolean>> replies = new ArrayList<>();
+            Thread publisher = Thread.ofPlatform().start(() -> messages.forEach(
+                    message -> replies.add(channel.publishAsync(routingKey, message))));
+            publisher.join();
+
+            CompletableFuture.allOf(replies.toArray(CompletableFuture[]::new)).get(2000, MILLISECONDS);
+            assertThat(replies).allSatisfy(reply -> assertThat(reply.join()).isTrue());
+            for (String message : messages) {
+                assertThat(received.poll(1000, MILLISECONDS)).isEqualTo(message);
+            }
+            assertThat(received).isEmpty();
+
+            subscription.interrupt();
+            channel.disconnect();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void channel_publishes_and_disconnects_after_subscription_ended(boolean nio) throws Exception {
+        try (MessageBrokerServer mb = new MessageBrokerServer(false)) {
+            AbstractChannel channel = nio ? new NioChannel("localhost", 20000) : new Channel("localhost", 20000);
+            await().until(channel::connect);
+            assertThat(channel.exchangeDeclare(ExchangeType.FANOUT, exchangeName)).isTrue();
+            assertThat(channel.queueBind(queueName, routingKey)).isTrue();
+            Thread subscription = channel.subscribe(message -> { });
+            subscription.interrupt();
+            subscription.join();
+
+            // the broker still delivers to the connection, in front of the reply, which must not be taken as reply
+            assertThat(channel.publish(routingKey, "hello")).isTrue();
+            assertThat(channel.publish(routingKey, "again")).isTrue();
+            assertThat(channel.getMetrics().getAckCount()).isEqualTo(2);
+
+            channel.disconnect();
+            await().untilAsserted(() -> assertThat(mb.getLogs().getLines()).endsWith("exit"));
+            assertThat(channel.publish(routingKey, "closed")).isFalse();
+        }
+    }
+
+    /* =========================== HELPER METHODS =========================== */
+    private Channel connectedChannel() {
+        Channel channel = new Channel("localhost", 20000);
+        await().until(channel::connect);
+        return channel;
+    }
+}
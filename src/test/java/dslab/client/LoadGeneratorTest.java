@@ -0,0 +1,51 @@
+package dslab.client;
+
+import dslab.config.Config;
+import dslab.mock.NioMessageBroker;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Timeout.ThreadMode.SEPARATE_THREAD;
+
+public class LoadGeneratorTest {
+
+    @Timeout(value = 15000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void reports_throughput_and_latency_of_every_delivery() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LoadGenerator.Options options = LoadGenerator.Options.parse(
+                new String[]{"-publishers", "2", "-subscribers", "2", "-rate", "500", "-size", "100",
+                        "-duration", "1"}, 0);
+
+        LoadGenerator.Report report;
+        try (NioMessageBroker broker = new NioMessageBroker()) {
+            report = new LoadGenerator(new Config("client-0"), "broker-0", options, new PrintStream(out)).run();
+        }
+
+        assertThat(report.sent()).isBetween(490L, 500L);
+        assertThat(report.failed()).isZero();
+        assertThat(report.received()).isEqualTo(2 * report.sent());
+        assertThat(report.corrected().getTotalCount()).isEqualTo(report.received());
+        assertThat(report.uncorrected().getTotalCount()).isEqualTo(report.received());
+        assertThat(report.corrected().getMaxValue()).isGreaterThanOrEqualTo(report.uncorrected().getMaxValue());
+        assertThat(report.elapsed()).isGreaterThanOrEqualTo(Duration.ofSeconds(1));
+        assertThat(out.toString()).contains("corrected", "uncorrected", "p99.9");
+    }
+
+    @Test
+    public void rejects_invalid_options() {
+        assertThatThrownBy(() -> LoadGenerator.Options.parse(new String[]{"-rate"}, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> LoadGenerator.Options.parse(new String[]{"-speed", "1"}, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> LoadGenerator.Options.parse(new String[]{"-publishers", "0"}, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
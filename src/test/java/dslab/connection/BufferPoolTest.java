@@ -0,0 +1,77 @@
+package dslab.connection;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+public class BufferPoolTest {
+
+    @Test
+    public void released_buffers_are_reused_per_size_class() {
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_BYTES_PER_CLASS, false);
+
+        PooledBuffer first = pool.acquire(300);
+        assertThat(first.buffer().isDirect()).isTrue();
+        assertThat(first.buffer().capacity()).isEqualTo(512);
+        assertThat(first.buffer().limit()).isEqualTo(300);
+        assertThat(pool.getOutstanding()).isEqualTo(1);
+        first.release();
+
+        PooledBuffer second = pool.acquire(400);
+        PooledBuffer other = pool.acquire(100);
+        assertThat(second.buffer()).isSameAs(first.buffer());
+        assertThat(other.buffer().capacity()).isEqualTo(BufferPool.MIN_SIZE);
+        assertThat(pool.getHits()).isEqualTo(1);
+        assertThat(pool.getMisses()).isEqualTo(2);
+        assertThat(pool.getOutstanding()).isEqualTo(2);
+
+        second.release();
+        other.release();
+        assertThat(pool.getOutstanding()).isZero();
+    }
+
+    @Test
+    public void buffer_returns_to_pool_after_last_reference() {
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_BYTES_PER_CLASS, false);
+        PooledBuffer buffer = pool.copyOf(ByteBuffer.wrap("message".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(LineDecoder.toString(buffer.buffer())).isEqualTo("message");
+        buffer.retain();
+        buffer.release();
+        assertThat(pool.getOutstanding()).isEqualTo(1);
+        buffer.release();
+        assertThat(pool.getOutstanding()).isZero();
+        assertThatThrownBy(buffer::release).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(buffer::retain).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void large_buffers_are_not_pooled() {
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_BYTES_PER_CLASS, false);
+
+        PooledBuffer buffer = pool.acquire(BufferPool.MAX_SIZE + 1);
+        buffer.release();
+        pool.acquire(BufferPool.MAX_SIZE + 1).release();
+
+        assertThat(pool.getMisses()).isEqualTo(2);
+        assertThat(pool.getHits()).isZero();
+    }
+
+    @Test
+    public void leak_detection_reports_unreleased_buffers() {
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_BYTES_PER_CLASS, true);
+        pool.acquire(64);
+        pool.acquire(64).release();
+
+        await().until(() -> {
+            System.gc();
+            return pool.getLeaks() == 1;
+        });
+        assertThat(pool.getOutstanding()).isZero();
+    }
+}
@@ -0,0 +1,124 @@
+package dslab.connection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CodecTest {
+
+    @Test
+    public void decoder_joins_lines_spread_over_several_buffers() {
+        List<String> lines = new ArrayList<>();
+        LineDecoder decoder = new LineDecoder(line -> lines.add(LineDecoder.toString(line)));
+
+        byte[] bytes = "ok\r\nmessage-1\nmessage-2\nok bye\nmessage-10\n".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i += 5) {
+            decoder.decode(ByteBuffer.wrap(bytes, i, Math.min(5, bytes.length - i)));
+        }
+
+        assertThat(lines).containsExactly("ok", "message-1", "message-2", "ok bye", "message-10");
+    }
+
+    @Test
+    public void paused_decoder_leaves_the_rest_in_the_buffer() {
+        List<String> lines = new ArrayList<>();
+        LineDecoder decoder = new LineDecoder(line -> lines.add(LineDecoder.toString(line)), () -> lines.size() == 2);
+        ByteBuffer buffer = ascii("ok\nmessage-1\nmessage-2\nmess");
+
+        decoder.decode(buffer);
+        assertThat(lines).containsExactly("ok", "message-1");
+        assertThat(LineDecoder.toString(buffer)).isEqualTo("message-2\nmess");
+
+        lines.clear();
+        decoder.decode(buffer);
+        decoder.decode(ascii("age-3\n"));
+        assertThat(lines).containsExactly("message-2", "message-3");
+    }
+
+    @Test
+    public void replies_are_recognised_on_bytes() {
+        assertThat(Reply.parse(ascii("ok"))).isEqualTo(Reply.OK);
+        assertThat(Reply.parse(ascii("ok SMQP"))).isEqualTo(Reply.OK_SMQP);
+        assertThat(Reply.parse(ascii("ok bye"))).isEqualTo(Reply.OK_BYE);
+        assertThat(Reply.parse(ascii("error unknown command"))).isEqualTo(Reply.OTHER);
+    }
+
+    @Test
+    public void replies_are_told_apart_from_deliveries() {
+        assertThat(Reply.isReply(ascii("ok"))).isTrue();
+        assertThat(Reply.isReply(ascii("ok bye"))).isTrue();
+        assertThat(Reply.isReply(ascii("error"))).isTrue();
+        assertThat(Reply.isReply(ascii("error unknown command"))).isTrue();
+        assertThat(Reply.isReply(ascii("errors"))).isFalse();
+        assertThat(Reply.isReply(ascii("ok go"))).isFalse();
+        assertThat(Reply.isReply(ascii("message-1"))).isFalse();
+        assertThat(Reply.isReply(ascii(""))).isFalse();
+    }
+
+    @Test
+    public void encoder_writes_utf8_commands() {
+        CommandEncoder encoder = new CommandEncoder();
+        String message = "grüße-€-😀-" + "x".repeat(2000);
+
+        encoder.clear().append(42).append(' ').append("publish").append(' ').append(message).append('\n');
+
+        ByteBuffer frame = encoder.frame();
+        assertThat(StandardCharsets.UTF_8.decode(frame).toString()).isEqualTo("42 publish " + message + "\n");
+    }
+
+    @Test
+    public void decoder_joins_binary_frames_spread_over_several_buffers() throws ProtocolException {
+        List<String> payloads = new ArrayList<>();
+        FrameDecoder decoder = new FrameDecoder(line -> payloads.add("line"),
+                (opcode, payload) -> payloads.add(opcode + ":" + LineDecoder.toString(payload)), () -> true,
+                () -> false);
+
+        ByteBuffer frames = ByteBuffer.allocate(256);
+        for (String payload : List.of("ok", "", "message with\nline breaks", "x".repeat(100))) {
+            byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+            frames.put(Opcode.DELIVERY.code()).putInt(bytes.length).put(bytes);
+        }
+        frames.flip();
+
+        byte[] bytes = new byte[frames.remaining()];
+        frames.get(bytes);
+        for (int i = 0; i < bytes.length; i += 5) {
+            decoder.decode(ByteBuffer.wrap(bytes, i, Math.min(5, bytes.length - i)));
+        }
+        decoder.decode(ByteBuffer.wrap(bytes));
+
+        List<String> expected = List.of("33:ok", "33:", "33:message with\nline breaks", "33:" + "x".repeat(100));
+        assertThat(payloads.subList(0, 4)).isEqualTo(expected);
+        assertThat(payloads.subList(4, 8)).isEqualTo(expected);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {-1, Integer.MIN_VALUE, FrameDecoder.MAX_PAYLOAD_SIZE + 1, Integer.MAX_VALUE})
+    public void decoder_rejects_invalid_frame_lengths(int length) throws ProtocolException {
+        List<String> frames = new ArrayList<>();
+        FrameDecoder decoder = new FrameDecoder(line -> frames.add("line"), (opcode, payload) -> frames.add("frame"),
+                () -> true, () -> false);
+        ByteBuffer frame = ByteBuffer.allocate(FrameDecoder.HEADER_SIZE).put(Opcode.DELIVERY.code()).putInt(length);
+
+        assertThatThrownBy(() -> decoder.decode(frame.flip().duplicate())).isInstanceOf(ProtocolException.class);
+        // a header which is spread over two buffers is checked once it is complete
+        FrameDecoder partial = new FrameDecoder(line -> frames.add("line"), (opcode, payload) -> frames.add("frame"),
+                () -> true, () -> false);
+        partial.decode(frame.duplicate().limit(2));
+        assertThatThrownBy(() -> partial.decode(frame.duplicate().position(2))).isInstanceOf(ProtocolException.class);
+        assertThat(frames).isEmpty();
+    }
+
+    private ByteBuffer ascii(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+}
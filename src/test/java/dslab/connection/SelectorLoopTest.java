@@ -0,0 +1,60 @@
+package dslab.connection;
+
+import dslab.connection.types.ExchangeType;
+import dslab.mock.NioMessageBroker;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Timeout.ThreadMode.SEPARATE_THREAD;
+
+public class SelectorLoopTest {
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void failing_task_only_disconnects_its_channel() throws Exception {
+        try (NioMessageBroker broker = new NioMessageBroker(0)) {
+            NioChannel failing = new NioChannel("localhost", broker.getPort());
+            NioChannel other = new NioChannel("localhost", broker.getPort());
+            assertThat(failing.connect()).isTrue();
+            assertThat(other.connect()).isTrue();
+
+            SelectorLoop.getDefault().execute(failing, () -> {
+                throw new IllegalStateException("failing task");
+            });
+            SelectorLoop.getDefault().execute(() -> {
+                throw new IllegalStateException("failing task without channel");
+            });
+
+            await().until(failing::isClosed);
+            assertThat(other.exchangeDeclare(ExchangeType.DIRECT, "exchange")).isTrue();
+            other.disconnect();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void register_on_the_selector_thread_does_not_wait_for_itself() throws Exception {
+        try (SocketChannel socketChannel = SocketChannel.open()) {
+            socketChannel.configureBlocking(false);
+            CompletableFuture<SelectionKey> key = new CompletableFuture<>();
+
+            SelectorLoop.getDefault().execute(() -> {
+                try {
+                    key.complete(SelectorLoop.getDefault().register(socketChannel, null));
+                } catch (Exception e) {
+                    key.completeExceptionally(e);
+                }
+            });
+
+            assertThat(key.get(1000, MILLISECONDS).isValid()).isTrue();
+            key.join().cancel();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package dslab.connection;
+
+import dslab.connection.types.ExchangeType;
+import dslab.mock.NioMessageBroker;
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Timeout.ThreadMode.SEPARATE_THREAD;
+
+public class SmqpEventsTest {
+
+    private static final List<String> EVENTS = List.of("dslab.smqp.Handshake", "dslab.smqp.ExchangeDeclare",
+            "dslab.smqp.QueueBind", "dslab.smqp.PublishSent", "dslab.smqp.AckReceived", "dslab.smqp.MessageDelivered",
+            "dslab.smqp.Callback");
+
+    @Test
+    public void events_are_disabled_by_default() {
+        assertThat(EventType.getEventType(SmqpEvents.PublishSent.class).isEnabled()).isFalse();
+        assertThat(EventType.getEventType(SmqpEvents.Callback.class).isEnabled()).isFalse();
+    }
+
+    @Timeout(value = 10000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void recording_contains_the_events_of_a_publish_and_its_delivery(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("smqp.jfr");
+        try (NioMessageBroker broker = new NioMessageBroker(0);
+             Recording recording = new Recording()) {
+            EVENTS.forEach(name -> recording.enable(name).withThreshold(Duration.ZERO));
+            recording.start();
+
+            AbstractChannel subscriber = new Channel("localhost", broker.getPort());
+            AbstractChannel publisher = new NioChannel("localhost", broker.getPort());
+            assertThat(subscriber.connect()).isTrue();
+            assertThat(publisher.connect()).isTrue();
+
+            BlockingQueue<String> received = new LinkedBlockingQueue<>();
+            subscriber.exchangeDeclare(ExchangeType.DIRECT, "orders");
+            subscriber.queueBind("eu-orders", "eu");
+            Thread subscription = subscriber.subscribe(received::add);
+            publisher.exchangeDeclare(ExchangeType.DIRECT, "orders");
+            assertThat(publisher.publish("eu", "größe")).isTrue();
+            assertThat(received.poll(1000, MILLISECONDS)).isEqualTo("größe");
+
+            subscription.interrupt();
+            subscription.join();
+            publisher.disconnect();
+            subscriber.disconnect();
+            recording.stop();
+            recording.dump(file);
+        }
+
+        Map<String, List<RecordedEvent>> events = RecordingFile.readAllEvents(file).stream()
+                .collect(Collectors.groupingBy(event -> event.getEventType().getName()));
+        assertThat(events.keySet()).containsAll(EVENTS);
+        assertThat(events.get("dslab.smqp.Handshake")).hasSize(2)
+                .allSatisfy(event -> assertThat(event.getBoolean("success")).isTrue());
+
+        RecordedEvent bind = events.get("dslab.smqp.QueueBind").getFirst();
+        assertThat(bind.getString("exchange")).isEqualTo("orders");
+        assertThat(bind.getString("queue")).isEqualTo("eu-orders");
+        assertThat(bind.getString("routingKey")).isEqualTo("eu");
+
+        RecordedEvent ack = events.get("dslab.smqp.AckReceived").getFirst();
+        assertThat(ack.getString("exchange")).isEqualTo("orders");
+        assertThat(ack.getString("routingKey")).isEqualTo("eu");
+        assertThat(ack.getInt("payloadSize")).isEqualTo(7);
+        assertThat(ack.getDuration("roundTripTime")).isPositive();
+        assertThat(ack.getBoolean("acknowledged")).isTrue();
+
+        assertThat(events.get("dslab.smqp.PublishSent").getFirst().getInt("payloadSize")).isEqualTo(7);
+        assertThat(events.get("dslab.smqp.MessageDelivered").getFirst().getInt("payloadSize")).isEqualTo(7);
+        RecordedEvent callback = events.get("dslab.smqp.Callback").getFirst();
+        assertThat(callback.getString("exchange")).isEqualTo("orders");
+        assertThat(callback.getInt("payloadSize")).isEqualTo(7);
+    }
+}
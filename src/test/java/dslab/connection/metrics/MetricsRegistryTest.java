@@ -0,0 +1,115 @@
+package dslab.connection.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import dslab.connection.AbstractChannel;
+import dslab.connection.Channel;
+import dslab.connection.NioChannel;
+import dslab.connection.types.ExchangeType;
+import dslab.mock.NioMessageBroker;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Timeout.ThreadMode.SEPARATE_THREAD;
+
+public class MetricsRegistryTest {
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void channels_record_their_traffic_per_channel_and_per_broker() throws Exception {
+        try (NioMessageBroker broker = new NioMessageBroker(0)) {
+            String address = "localhost:" + broker.getPort();
+            AbstractChannel subscriber = new Channel("localhost", broker.getPort());
+            AbstractChannel publisher = new NioChannel("localhost", broker.getPort());
+            assertThat(subscriber.connect()).isTrue();
+            assertThat(publisher.connect()).isTrue();
+
+            BlockingQueue<String> received = new LinkedBlockingQueue<>();
+            subscriber.exchangeDeclare(ExchangeType.FANOUT, "metrics");
+            subscriber.queueBind("metrics", "any");
+            assertThat(subscriber.subscribe(received::add)).isNotNull();
+            publisher.exchangeDeclare(ExchangeType.FANOUT, "metrics");
+            for (int i = 0; i < 10; i++) {
+                assertThat(publisher.publish("any", "message-" + i)).isTrue();
+            }
+            await().until(() -> subscriber.getMetrics().getCallbackCount() == 10);
+
+            ChannelMetrics published = publisher.getMetrics();
+            assertThat(published.getPublishes()).isEqualTo(10);
+            assertThat(published.getAckCount()).isEqualTo(10);
+            assertThat(published.getAckTotalNanos()).isPositive();
+            assertThat(published.getAckMaxNanos()).isLessThanOrEqualTo(published.getAckTotalNanos());
+            assertThat(published.getHandshakeCount()).isEqualTo(1);
+            assertThat(published.getBytesOut()).isGreaterThan(10 * "publish any message-0\n".length());
+            assertThat(published.getBytesIn()).isEqualTo("ok SMQP\n".length() + 11 * "ok\n".length());
+
+            ChannelMetrics subscribed = subscriber.getMetrics();
+            assertThat(subscribed.getDeliveries()).isEqualTo(10);
+            assertThat(subscribed.getPublishes()).isZero();
+            assertThat(subscribed.getPrefetchDepth()).isZero();
+
+            ChannelMetrics total = MetricsRegistry.getDefault().getBroker(address);
+            assertThat(total.getPublishes()).isEqualTo(10);
+            assertThat(total.getDeliveries()).isEqualTo(10);
+            assertThat(total.getHandshakeCount()).isEqualTo(2);
+            assertThat(total.getBytesIn()).isEqualTo(published.getBytesIn() + subscribed.getBytesIn());
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName channelName = new ObjectName(MetricsRegistry.DOMAIN + ":type=Channel,broker="
+                    + ObjectName.quote(address) + ",name=" + published.getName());
+            assertThat(server.getAttribute(channelName, "Publishes")).isEqualTo(10L);
+
+            publisher.disconnect();
+            assertThat(server.isRegistered(channelName)).isFalse();
+            ObjectName brokerName = new ObjectName(MetricsRegistry.DOMAIN + ":type=Broker,broker="
+                    + ObjectName.quote(address));
+            assertThat(server.getAttribute(brokerName, "Publishes")).isEqualTo(10L);
+            subscriber.disconnect();
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void http_endpoint_serves_open_metrics_text() throws Exception {
+        try (NioMessageBroker broker = new NioMessageBroker(0)) {
+            AbstractChannel channel = new NioChannel("localhost", broker.getPort());
+            assertThat(channel.connect()).isTrue();
+            channel.exchangeDeclare(ExchangeType.DIRECT, "metrics");
+            assertThat(channel.publish("key", "message")).isTrue();
+
+            HttpServer server = MetricsRegistry.getDefault().startHttpServer(new InetSocketAddress("localhost", 0));
+            try (HttpClient client = HttpClient.newHttpClient()) {
+                HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(
+                        "http://localhost:" + server.getAddress().getPort() + MetricsRegistry.PATH)).build(),
+                        HttpResponse.BodyHandlers.ofString());
+
+                String labels = "{broker=\"localhost:%d\",channel=\"%s\"}"
+                        .formatted(broker.getPort(), channel.getMetrics().getName());
+                assertThat(response.statusCode()).isEqualTo(200);
+                assertThat(response.headers().firstValue("Content-Type")).hasValue(MetricsRegistry.CONTENT_TYPE);
+                assertThat(response.body())
+                        .contains("# TYPE smqp_publishes counter\n")
+                        .contains("smqp_publishes_total" + labels + " 1\n")
+                        .contains("smqp_ack_round_trip_seconds_count" + labels + " 1\n")
+                        .contains("# UNIT smqp_sent_bytes bytes\n")
+                        .endsWith("# EOF\n");
+            } finally {
+                server.stop(0);
+                channel.disconnect();
+            }
+        }
+    }
+}
@@ -3,38 +3,69 @@ package dslab.mock;
 import dslab.util.streams.TestOutputStream;
 import lombok.Getter;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.net.BindException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Mocks a message broker for testing purposes. Response is always "ok" except on client connection establishment.
+ * <p>
+ * Supports the multiplex mode of {@link dslab.connection.Connection}, where every line is prefixed with the id of a
+ * logical channel.
+ * <p>
+ * Supports binary framing, which a plain connection requests with a {@code binary} line after the greeting. Each frame
+ * is an opcode and the payload length followed by the payload. Commands of binary frames are logged like their text
+ * lines.
  */
 public final class MessageBrokerServer extends Thread implements AutoCloseable {
 
     private final TestOutputStream logs;
     private final boolean logClientConnected;
-    private final Set<Socket> sockets = new HashSet<>();
-    private final Set<Socket> subscribers = new HashSet<>();
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final boolean binaryFraming;
 
     private ServerSocket serverSocket;
+    private boolean closed;
 
     public MessageBrokerServer(boolean logClientConnected) {
+        this(logClientConnected, true);
+    }
+
+    /**
+     * @param logClientConnected whether new connections are logged
+     * @param binaryFraming      whether requests for binary framing are accepted
+     */
+    public MessageBrokerServer(boolean logClientConnected, boolean binaryFraming) {
         this.logs = new TestOutputStream();
         this.logClientConnected = logClientConnected;
+        this.binaryFraming = binaryFraming;
         this.start();
     }
 
     @Override
     public void run() {
         try {
-            serverSocket = new ServerSocket(20000);
+            ServerSocket serverSocket = bind();
+            synchronized (this) {
+                this.serverSocket = serverSocket;
+                if (closed) {
+                    // closed before the socket was bound, it would otherwise keep the port for later tests
+                    serverSocket.close();
+                }
+            }
 
             while (!serverSocket.isClosed()) {
                 Socket socket = serverSocket.accept();
@@ -48,10 +79,33 @@ public final class MessageBrokerServer extends Thread implements AutoCloseable {
         close();
     }
 
+    /**
+     * Binds the port, retrying for a while in case the broker of a previous test is still shutting down.
+     */
+    private static ServerSocket bind() throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            ServerSocket serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            try {
+                serverSocket.bind(new InetSocketAddress(20000));
+                return serverSocket;
+            } catch (BindException e) {
+                serverSocket.close();
+                if (attempt == 50) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException interrupted) {
+                    throw e;
+                }
+            }
+        }
+    }
+
     private void logConnection() {
         try {
-            logs.write("client connected".getBytes());
-            logs.flush();
+            log("client connected");
         } catch (IOException e) {
             // Ignored
         }
@@ -59,57 +113,209 @@ public final class MessageBrokerServer extends Thread implements AutoCloseable {
 
     private void handleClient(Socket socket) {
         try (socket;
-             BufferedReader socketIn = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             BufferedWriter socketOut = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()))
+             InputStream socketIn = new BufferedInputStream(socket.getInputStream())
         ) {
-            socketOut.write("ok SMQP\n");
-            socketOut.flush();
+            send(socket, "ok SMQP");
 
             if (logClientConnected) {
                 logConnection();
             }
 
+            boolean multiplexed = false;
             String line;
-            while ((line = socketIn.readLine()) != null) {
-                logs.write(line.getBytes());
-                logs.flush();
-
-                if (line.startsWith("subscribe")) {
-                    subscribers.add(socket);
-                } else if (line.startsWith("publish")) {
-                    String[] parts = line.split(" ");
-
-                    if (parts.length != 3) continue;
-
-                    for (Socket s : subscribers) {
-                        if (s.isClosed()) continue;
+            while ((line = readLine(socketIn)) != null) {
+                if (!multiplexed && line.equals("multiplex")) {
+                    multiplexed = true;
+                    send(socket, "ok");
+                    continue;
+                }
 
-                        s.getOutputStream().write("%s\n".formatted(parts[2]).getBytes());
-                        s.getOutputStream().flush();
+                if (!multiplexed && line.equals("binary")) {
+                    if (!binaryFraming) {
+                        send(socket, "error binary framing not supported");
+                        continue;
                     }
-                } else if (line.startsWith("exit")) {
-                    socketOut.write("ok bye\n");
-                    socketOut.flush();
-                    sockets.remove(socket);
-                    subscribers.remove(socket);
-                    socket.close();
+                    send(socket, "ok");
+                    handleBinaryClient(socket, new DataInputStream(socketIn));
                     break;
                 }
 
-                socketOut.write("ok\n");
-                socketOut.flush();
+                if (multiplexed) {
+                    String[] parts = line.split(" ", 2);
+                    if (parts.length != 2) continue;
+                    handleCommand(new Subscriber(socket, parts[0] + " ", false), parts[1]);
+                } else if (!handleCommand(new Subscriber(socket, "", false), line)) {
+                    break;
+                }
             }
         } catch (IOException e) {
             // Ignored
         }
     }
 
+    /**
+     * Reads binary frames and handles them like the equivalent text lines. Every argument of a command except the last
+     * is prefixed with its length as unsigned short, the last one takes the rest of the payload.
+     */
+    private void handleBinaryClient(Socket socket, DataInputStream in) throws IOException {
+        try {
+            while (true) {
+                byte opcode = in.readByte();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+
+                String keyword = switch (opcode) {
+                    case 0x01 -> "exchange";
+                    case 0x02 -> "queue";
+                    case 0x03 -> "bind";
+                    case 0x04 -> "subscribe";
+                    case 0x05 -> "publish";
+                    case 0x06 -> "exit";
+                    default -> "unknown";
+                };
+
+                ByteBuffer buffer = ByteBuffer.wrap(payload);
+                StringBuilder line = new StringBuilder(keyword);
+                if (opcode == 0x01 || opcode == 0x05) {
+                    byte[] first = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(first);
+                    line.append(' ').append(new String(first, StandardCharsets.UTF_8));
+                }
+                // the message of a publish is forwarded as it is, it may be no valid UTF-8
+                byte[] last = Arrays.copyOfRange(payload, buffer.position(), payload.length);
+                if (last.length > 0) {
+                    line.append(' ').append(new String(last, StandardCharsets.UTF_8));
+                }
+
+                Subscriber client = new Subscriber(socket, "", true);
+                if (!handleCommand(client, line.toString(), opcode == 0x05 ? last : null)) {
+                    return;
+                }
+            }
+        } catch (EOFException e) {
+            // Client closed the connection
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Handles a command of a client, which is either a plain connection or a logical channel of a multiplexed one.
+     *
+     * @return false if the connection of the client has to be closed
+     */
+    private boolean handleCommand(Subscriber client, String line) throws IOException {
+        return handleCommand(client, line, null);
+    }
+
+    /**
+     * @param message the raw message of a binary publish, or null
+     */
+    private boolean handleCommand(Subscriber client, String line, byte[] message) throws IOException {
+        log(line);
+
+        if (line.equals("open")) {
+            send(client, "ok SMQP");
+            return true;
+        } else if (line.startsWith("subscribe")) {
+            subscribers.add(client);
+        } else if (line.startsWith("publish")) {
+            // binary frames may carry messages with spaces
+            String[] parts = client.binary() ? line.split(" ", 3) : line.split(" ");
+
+            if (parts.length != 3) return true;
+
+            for (Subscriber s : subscribers) {
+                if (s.socket().isClosed()) continue;
+
+                deliver(s, message != null ? message : parts[2].getBytes(StandardCharsets.UTF_8));
+            }
+        } else if (line.startsWith("exit")) {
+            send(client, "ok bye");
+            subscribers.remove(client);
+            if (!client.prefix().isEmpty()) {
+                // only the logical channel is closed
+                return true;
+            }
+            sockets.remove(client.socket());
+            client.socket().close();
+            return false;
+        }
+
+        send(client, "ok");
+        return true;
+    }
+
+    private void log(String line) throws IOException {
+        // every client is served by its own thread, their lines must not interleave
+        synchronized (logs) {
+            logs.write(line.getBytes());
+            logs.flush();
+        }
+    }
+
+    private void send(Subscriber client, String line) throws IOException {
+        if (client.binary()) {
+            sendFrame(client, 0x20, line.getBytes(StandardCharsets.UTF_8));
+        } else {
+            send(client.socket(), client.prefix() + line);
+        }
+    }
+
+    private void deliver(Subscriber client, byte[] message) throws IOException {
+        if (client.binary()) {
+            sendFrame(client, 0x21, message);
+            return;
+        }
+        byte[] prefix = client.prefix().getBytes(StandardCharsets.UTF_8);
+        byte[] line = Arrays.copyOf(prefix, prefix.length + message.length + 1);
+        System.arraycopy(message, 0, line, prefix.length, message.length);
+        line[line.length - 1] = '\n';
+        synchronized (client.socket()) {
+            client.socket().getOutputStream().write(line);
+            client.socket().getOutputStream().flush();
+        }
+    }
+
+    private void sendFrame(Subscriber client, int opcode, byte[] bytes) throws IOException {
+        // a single write, separate small writes would be delayed by Nagle's algorithm
+        byte[] frame = ByteBuffer.allocate(5 + bytes.length)
+                .put((byte) opcode).putInt(bytes.length).put(bytes)
+                .array();
+        synchronized (client.socket()) {
+            client.socket().getOutputStream().write(frame);
+            client.socket().getOutputStream().flush();
+        }
+    }
+
+    private void send(Socket socket, String line) throws IOException {
+        synchronized (socket) {
+            socket.getOutputStream().write("%s\n".formatted(line).getBytes());
+            socket.getOutputStream().flush();
+        }
+    }
+
     @Override
     public void close() {
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) serverSocket.close();
-        } catch (IOException e) {
-            // Ignored
+        synchronized (this) {
+            closed = true;
+            try {
+                if (serverSocket != null && !serverSocket.isClosed()) serverSocket.close();
+            } catch (IOException e) {
+                // Ignored
+            }
         }
 
         for (Socket socket : sockets) {
@@ -124,4 +330,11 @@ public final class MessageBrokerServer extends Thread implements AutoCloseable {
     public TestOutputStream getLogs() {
         return logs;
     }
+
+    /**
+     * A client of the broker, identified by its socket and the prefix of its logical channel (empty if the socket is
+     * not multiplexed). Binary clients receive frames instead of lines.
+     */
+    private record Subscriber(Socket socket, String prefix, boolean binary) {
+    }
 }
@@ -0,0 +1,676 @@
+package dslab.mock;
+
+import dslab.connection.types.ExchangeType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in of the message broker for load tests and benchmarks. Unlike {@link MessageBrokerServer} it serves all
+ * connections with a single selector thread and routes messages like the real broker:
+ * <ul>
+ *     <li>{@code default} exchanges deliver to the queue named by the routing key</li>
+ *     <li>{@code direct} exchanges deliver to the queues bound with exactly the routing key</li>
+ *     <li>{@code fanout} exchanges deliver to all bound queues and ignore the keys</li>
+ *     <li>{@code topic} exchanges match dot separated binding keys, where {@code *} stands for exactly one word and
+ *     {@code #} for zero or more words</li>
+ * </ul>
+ * Every queue buffers its messages until a subscriber is ready for them. Several subscribers of the same queue receive
+ * its messages in turn. Subscribers which do not read their socket are skipped until their pending output drained, so
+ * a slow client neither blocks the broker nor makes it run out of memory for the others.
+ * <p>
+ * Plain, multiplexed and binary framed connections are supported, see {@link MessageBrokerServer}. Nothing is logged,
+ * the broker only counts connections, publishes and deliveries.
+ */
+public final class NioMessageBroker implements Runnable, AutoCloseable {
+
+    public static final int DEFAULT_PORT = 20000;
+
+    private static final int BACKLOG = 4096;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+    private static final int FRAME_HEADER_SIZE = 5;
+    private static final byte REPLY = 0x20;
+    private static final byte DELIVERY = 0x21;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private final Map<String, Exchange> exchanges = new HashMap<>();
+    private final Map<String, Queue> queues = new HashMap<>();
+    private final Set<Client> clients = new LinkedHashSet<>();
+    private final List<Client> dirty = new ArrayList<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private volatile boolean closed;
+
+    public NioMessageBroker() throws IOException {
+        this(DEFAULT_PORT);
+    }
+
+    /**
+     * Binds the port and starts the selector thread.
+     *
+     * @param port the port to listen on, 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public NioMessageBroker(int port) throws IOException {
+        selector = Selector.open();
+        try {
+            server = bind(port);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            selector.close();
+            throw e;
+        }
+
+        thread = new Thread(this, "nio-broker-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Binds the port, retrying for a while in case the broker of a previous test is still shutting down.
+     */
+    private static ServerSocketChannel bind(int port) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            try {
+                server.bind(new InetSocketAddress(port), BACKLOG);
+                return server;
+            } catch (BindException e) {
+                server.close();
+                if (attempt == 50) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException interrupted) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the port the broker listens on
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of currently open connections
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * @return the number of publish commands received so far
+     */
+    public long getPublishCount() {
+        return published.get();
+    }
+
+    /**
+     * @return the number of messages delivered to subscribers so far
+     */
+    public long getDeliveryCount() {
+        return delivered.get();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Client client = (Client) key.attachment();
+                        if (key.isReadable()) {
+                            client.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.flush();
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                // the output of a whole round of events is written with as few system calls as possible, flushing may
+                // dispatch further messages and add clients to the list
+                for (int i = 0; i < dirty.size(); i++) {
+                    dirty.get(i).flush();
+                }
+                dirty.clear();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (Client client : List.copyOf(clients)) {
+                client.close();
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel socket;
+        while ((socket = server.accept()) != null) {
+            socket.configureBlocking(false);
+            socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Client client = new Client(socket);
+            client.key = socket.register(selector, SelectionKey.OP_READ, client);
+            clients.add(client);
+            connections.incrementAndGet();
+            client.send(client.channel(0, null), "ok SMQP");
+        }
+    }
+
+    /**
+     * Handles a command of a channel.
+     *
+     * @param message the message of a publish, null for other commands
+     */
+    private void handle(ClientChannel channel, String command, String first, String second, byte[] message) {
+        Client client = channel.client;
+        switch (command) {
+            case "open" -> client.send(channel, "ok SMQP");
+            case "exchange" -> {
+                ExchangeType type = parseType(first);
+                if (type == null || second == null) {
+                    client.send(channel, "error usage: exchange <type> <name>");
+                    return;
+                }
+                Exchange exchange = exchanges.computeIfAbsent(second, name -> new Exchange(type));
+                if (exchange.type != type) {
+                    client.send(channel, "error exchange already declared with type " + exchange.type.name().toLowerCase());
+                    return;
+                }
+                channel.exchange = exchange;
+                client.send(channel, "ok");
+            }
+            case "queue" -> {
+                if (first == null) {
+                    client.send(channel, "error usage: queue <name>");
+                    return;
+                }
+                channel.queue = queues.computeIfAbsent(first, name -> new Queue());
+                client.send(channel, "ok");
+            }
+            case "bind" -> {
+                if (channel.exchange == null || channel.queue == null || first == null) {
+                    client.send(channel, "error no exchange or queue declared");
+                    return;
+                }
+                channel.exchange.bind(first, channel.queue);
+                client.send(channel, "ok");
+            }
+            case "subscribe" -> {
+                if (channel.queue == null) {
+                    client.send(channel, "error no queue declared");
+                    return;
+                }
+                // the reply has to precede the first delivery
+                client.send(channel, "ok");
+                channel.subscribe();
+            }
+            case "publish" -> {
+                if (channel.exchange == null || first == null || message == null) {
+                    client.send(channel, "error no exchange declared");
+                    return;
+                }
+                published.incrementAndGet();
+                client.send(channel, "ok");
+                for (Queue queue : channel.exchange.route(first)) {
+                    queue.enqueue(message);
+                }
+            }
+            case "exit" -> {
+                client.send(channel, "ok bye");
+                channel.unsubscribe();
+                if (channel.prefix != null) {
+                    // only the logical channel is closed
+                    client.channels.remove(channel.id);
+                } else {
+                    client.closing = true;
+                }
+            }
+            default -> client.send(channel, "error unknown command " + command);
+        }
+    }
+
+    private static ExchangeType parseType(String type) {
+        for (ExchangeType value : ExchangeType.values()) {
+            if (value.name().equalsIgnoreCase(type)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Matches a routing key against the binding key of a topic exchange.
+     *
+     * @param bindingKey dot separated words, {@code *} matches one word and {@code #} zero or more words
+     * @param routingKey dot separated words
+     * @return true if the routing key matches
+     */
+    static boolean topicMatches(String bindingKey, String routingKey) {
+        return topicMatches(bindingKey.split("\\.", -1), 0, routingKey.split("\\.", -1), 0);
+    }
+
+    private static boolean topicMatches(String[] binding, int b, String[] routing, int r) {
+        if (b == binding.length) {
+            return r == routing.length;
+        }
+        if (binding[b].equals("#")) {
+            // zero words, or one more word for the same wildcard
+            return topicMatches(binding, b + 1, routing, r)
+                    || (r < routing.length && topicMatches(binding, b, routing, r + 1));
+        }
+        if (r == routing.length) {
+            return false;
+        }
+        return (binding[b].equals("*") || binding[b].equals(routing[r]))
+                && topicMatches(binding, b + 1, routing, r + 1);
+    }
+
+    /**
+     * Stops the selector thread and closes all connections.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final class Exchange {
+
+        private final ExchangeType type;
+        private final Map<String, Set<Queue>> bindings = new HashMap<>();
+
+        Exchange(ExchangeType type) {
+            this.type = type;
+        }
+
+        void bind(String bindingKey, Queue queue) {
+            bindings.computeIfAbsent(bindingKey, key -> new LinkedHashSet<>()).add(queue);
+        }
+
+        /**
+         * @return the queues the message has to be delivered to, each at most once
+         */
+        Set<Queue> route(String routingKey) {
+            return switch (type) {
+                case DEFAULT -> {
+                    Queue queue = queues.get(routingKey);
+                    yield queue == null ? Set.of() : Set.of(queue);
+                }
+                case DIRECT -> bindings.getOrDefault(routingKey, Set.of());
+                case FANOUT -> {
+                    Set<Queue> all = new LinkedHashSet<>();
+                    bindings.values().forEach(all::addAll);
+                    yield all;
+                }
+                case TOPIC -> {
+                    Set<Queue> matching = new LinkedHashSet<>();
+                    bindings.forEach((bindingKey, bound) -> {
+                        if (topicMatches(bindingKey, routingKey)) {
+                            matching.addAll(bound);
+                        }
+                    });
+                    yield matching;
+                }
+            };
+        }
+    }
+
+    private final class Queue {
+
+        private final ArrayDeque<byte[]> messages = new ArrayDeque<>();
+        private final List<ClientChannel> subscribers = new ArrayList<>();
+        private int next;
+
+        void enqueue(byte[] message) {
+            messages.add(message);
+            dispatch();
+        }
+
+        /**
+         * Hands the buffered messages to the subscribers in turn, as long as any of them can take more.
+         */
+        void dispatch() {
+            while (!messages.isEmpty()) {
+                ClientChannel subscriber = nextSubscriber();
+                if (subscriber == null) {
+                    return;
+                }
+                subscriber.client.deliver(subscriber, messages.poll());
+            }
+        }
+
+        private ClientChannel nextSubscriber() {
+            int count = subscribers.size();
+            for (int i = 0; i < count; i++) {
+                ClientChannel subscriber = subscribers.get((next + i) % count);
+                if (subscriber.client.pendingBytes < MAX_PENDING_BYTES) {
+                    next = (next + i + 1) % count;
+                    return subscriber;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The state of a channel, which is either a plain connection or a logical channel of a multiplexed one.
+     */
+    private final class ClientChannel {
+
+        private final Client client;
+        private final int id;
+        private final byte[] prefix;
+        private Exchange exchange;
+        private Queue queue;
+        private Queue subscribed;
+
+        ClientChannel(Client client, int id, byte[] prefix) {
+            this.client = client;
+            this.id = id;
+            this.prefix = prefix;
+        }
+
+        void subscribe() {
+            unsubscribe();
+            subscribed = queue;
+            subscribed.subscribers.add(this);
+            subscribed.dispatch();
+        }
+
+        void unsubscribe() {
+            if (subscribed != null) {
+                subscribed.subscribers.remove(this);
+                subscribed.next = 0;
+                subscribed = null;
+            }
+        }
+    }
+
+    private final class Client {
+
+        private final SocketChannel socket;
+        private final Map<Integer, ClientChannel> channels = new HashMap<>();
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        private SelectionKey key;
+        private ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private boolean multiplexed;
+        private boolean binary;
+        private boolean closing;
+        private int pendingBytes;
+
+        Client(SocketChannel socket) {
+            this.socket = socket;
+        }
+
+        ClientChannel channel(int id, byte[] prefix) {
+            return channels.computeIfAbsent(id, ignored -> new ClientChannel(this, id, prefix));
+        }
+
+        void read() {
+            try {
+                if (socket.read(input) == -1) {
+                    close();
+                    return;
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+
+            input.flip();
+            while (!closing && (binary ? decodeFrame() : decodeLine())) {
+                // decode all complete commands
+            }
+            input.compact();
+            if (!input.hasRemaining()) {
+                // a command larger than the buffer
+                input = ByteBuffer.allocate(input.capacity() * 2).put(input.flip());
+            }
+        }
+
+        private boolean decodeLine() {
+            int start = input.position();
+            int end = -1;
+            for (int i = start; i < input.limit(); i++) {
+                if (input.get(i) == '\n') {
+                    end = i;
+                    break;
+                }
+            }
+            if (end == -1) {
+                return false;
+            }
+            input.position(end + 1);
+            if (end > start && input.get(end - 1) == '\r') {
+                end--;
+            }
+
+            String line = new String(input.array(), start, end - start, StandardCharsets.UTF_8);
+            if (!multiplexed && !binary && line.equals("multiplex")) {
+                multiplexed = true;
+                send(channel(0, null), "ok");
+            } else if (!multiplexed && line.equals("binary")) {
+                send(channel(0, null), "ok");
+                binary = true;
+            } else if (multiplexed) {
+                String[] parts = line.split(" ", 2);
+                if (parts.length == 2) {
+                    try {
+                        int id = Integer.parseInt(parts[0]);
+                        handleLine(channel(id, (parts[0] + " ").getBytes(StandardCharsets.UTF_8)), parts[1]);
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            } else {
+                handleLine(channel(0, null), line);
+            }
+            return true;
+        }
+
+        private void handleLine(ClientChannel channel, String line) {
+            String[] parts = line.split(" ", 3);
+            String first = parts.length > 1 ? parts[1] : null;
+            String second = parts.length > 2 ? parts[2] : null;
+            byte[] message = second == null ? null : second.getBytes(StandardCharsets.UTF_8);
+            handle(channel, parts[0], first, second, message);
+        }
+
+        /**
+         * Decodes a frame, every argument of a command except the last is prefixed with its length as unsigned short,
+         * the last one takes the rest of the payload.
+         */
+        private boolean decodeFrame() {
+            if (input.remaining() < FRAME_HEADER_SIZE) {
+                return false;
+            }
+            int start = input.position();
+            int length = input.getInt(start + 1);
+            if (input.remaining() < FRAME_HEADER_SIZE + length) {
+                if (FRAME_HEADER_SIZE + length > input.capacity()) {
+                    input = ByteBuffer.allocate(FRAME_HEADER_SIZE + length).put(input).flip();
+                }
+                return false;
+            }
+
+            byte opcode = input.get(start);
+            int end = start + FRAME_HEADER_SIZE + length;
+            input.position(start + FRAME_HEADER_SIZE);
+
+            String first = null;
+            if (opcode == 0x01 || opcode == 0x05) {
+                byte[] bytes = new byte[input.getShort() & 0xFFFF];
+                input.get(bytes);
+                first = new String(bytes, StandardCharsets.UTF_8);
+            }
+            byte[] last = new byte[end - input.position()];
+            input.get(last);
+
+            String command = switch (opcode) {
+                case 0x01 -> "exchange";
+                case 0x02 -> "queue";
+                case 0x03 -> "bind";
+                case 0x04 -> "subscribe";
+                case 0x05 -> "publish";
+                case 0x06 -> "exit";
+                default -> "unknown";
+            };
+            ClientChannel channel = channel(0, null);
+            if (opcode == 0x05) {
+                // the message is forwarded as it is, it may be no valid UTF-8
+                handle(channel, command, first, null, last);
+            } else if (first != null) {
+                handle(channel, command, first, new String(last, StandardCharsets.UTF_8), null);
+            } else {
+                handle(channel, command, last.length == 0 ? null : new String(last, StandardCharsets.UTF_8), null, null);
+            }
+            return true;
+        }
+
+        void send(ClientChannel channel, String reply) {
+            byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+            if (binary) {
+                enqueue(frame(REPLY, bytes));
+            } else {
+                enqueue(line(channel.prefix, bytes));
+            }
+        }
+
+        void deliver(ClientChannel channel, byte[] message) {
+            delivered.incrementAndGet();
+            if (binary) {
+                enqueue(frame(DELIVERY, message));
+            } else {
+                enqueue(line(channel.prefix, message));
+            }
+        }
+
+        private static ByteBuffer frame(byte opcode, byte[] payload) {
+            return ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length)
+                    .put(opcode).putInt(payload.length).put(payload)
+                    .flip();
+        }
+
+        private static ByteBuffer line(byte[] prefix, byte[] bytes) {
+            int prefixLength = prefix == null ? 0 : prefix.length;
+            ByteBuffer line = ByteBuffer.allocate(prefixLength + bytes.length + 1);
+            if (prefix != null) {
+                line.put(prefix);
+            }
+            return line.put(bytes).put((byte) '\n').flip();
+        }
+
+        private void enqueue(ByteBuffer buffer) {
+            if (output.isEmpty()) {
+                dirty.add(this);
+            }
+            output.add(buffer);
+            pendingBytes += buffer.remaining();
+        }
+
+        /**
+         * Writes as much of the pending output as the socket takes and waits for write events for the rest.
+         */
+        void flush() {
+            if (!socket.isOpen()) {
+                return;
+            }
+            try {
+                while (!output.isEmpty()) {
+                    long written = socket.write(output.toArray(ByteBuffer[]::new));
+                    pendingBytes -= (int) written;
+                    while (!output.isEmpty() && !output.peek().hasRemaining()) {
+                        output.poll();
+                    }
+                    if (written == 0) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+
+            if (!output.isEmpty()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            if (closing) {
+                close();
+                return;
+            }
+            if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                key.interestOps(SelectionKey.OP_READ);
+                // the subscriptions of this client may take messages again
+                for (ClientChannel channel : channels.values()) {
+                    if (channel.subscribed != null) {
+                        channel.subscribed.dispatch();
+                    }
+                }
+            }
+        }
+
+        void close() {
+            if (!clients.remove(this)) {
+                return;
+            }
+            connections.decrementAndGet();
+            for (ClientChannel channel : channels.values()) {
+                channel.unsubscribe();
+            }
+            output.clear();
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package dslab.mock;
+
+import dslab.connection.AbstractChannel;
+import dslab.connection.Channel;
+import dslab.connection.Connection;
+import dslab.connection.LogicalChannel;
+import dslab.connection.NioChannel;
+import dslab.connection.types.ExchangeType;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Timeout.ThreadMode.SEPARATE_THREAD;
+
+public class NioMessageBrokerTest {
+
+    @BeforeAll
+    public static void beforeAll() {
+        Awaitility.setDefaultPollDelay(1, MILLISECONDS);
+        Awaitility.setDefaultTimeout(1500, MILLISECONDS);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "a.b.c, a.b.c, true",
+            "a.*.c, a.b.c, true",
+            "a.*.c, a.c, false",
+            "a.#, a, true",
+            "a.#, a.b.c, true",
+            "#.c, a.b.c, true",
+            "#, a.b.c, true",
+            "a.#.c, a.c, true",
+            "a.#.c, a.b.d, false",
+            "*.b, a.b.c, false",
+            "a.b, a.b.c, false",
+    })
+    public void topic_keys_match_like_the_broker(String bindingKey, String routingKey, boolean matches) {
+        assertThat(NioMessageBroker.topicMatches(bindingKey, routingKey)).isEqualTo(matches);
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @ParameterizedTest
+    @CsvSource({
+            "DIRECT, orders.eu, orders.eu, true, false",
+            "DIRECT, orders.eu, orders.us, false, true",
+            "FANOUT, orders.eu, anything, true, true",
+            "TOPIC, orders.*, orders.eu, true, false",
+            "TOPIC, #.us, orders.us, true, true",
+            "DEFAULT, orders.eu, queue-a, true, false",
+    })
+    public void routes_messages_by_exchange_type(ExchangeType type, String bindingKey, String routingKey,
+                                                 boolean toA, boolean toB) throws Exception {
+        try (NioMessageBroker broker = new NioMessageBroker(0)) {
+            BlockingQueue<String> a = subscribe(broker, type, "orders", "queue-a", bindingKey);
+            BlockingQueue<String> b = subscribe(broker, type, "orders", "queue-b", "orders.us");
+
+            AbstractChannel publisher = connect(new NioChannel("localhost", broker.getPort()));
+            assertThat(publisher.exchangeDeclare(type, "orders")).isTrue();
+            assertThat(publisher.publish(routingKey, "message")).isTrue();
+            // a marker for the queues which must not receive anything
+            assertThat(publisher.publish(type == ExchangeType.DEFAULT ? "queue-b" : "orders.us", "marker")).isTrue();
+
+            if (toA) {
+                assertThat(a.poll(1000, MILLISECONDS)).isEqualTo("message");
+            }
+            assertThat(b.poll(1000, MILLISECONDS)).isEqualTo(toB ? "message" : "marker");
+            assertThat(a.poll(50, MILLISECONDS)).isIn(null, "marker");
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void queue_buffers_messages_and_shares_them_between_subscribers() throws Exception {
+        try (NioMessageBroker broker = new NioMessageBroker(0)) {
+            AbstractChannel publisher = connect(new Channel("localhost", broker.getPort()));
+            assertThat(publisher.exchangeDeclare(ExchangeType.DIRECT, "work")).isTrue();
+            assertThat(publisher.queueBind("jobs", "job")).isTrue();
+            for (int i = 0; i < 10; i++) {
+                assertThat(publisher.publish("job", "job-" + i)).isTrue();
+            }
+
+            BlockingQueue<String> first = subscribe(broker, ExchangeType.DIRECT, "work", "jobs", "job");
+            assertThat(first.poll(1000, MILLISECONDS)).isEqualTo("job-0");
+            await().until(() -> first.size() == 9);
+            first.clear();
+
+            BlockingQueue<String> second = subscribe(broker, ExchangeType.DIRECT, "work", "jobs", "job");
+            for (int i = 0; i < 10; i++) {
+                assertThat(publisher.publish("job", "job-" + i)).isTrue();
+            }
+            await().until(() -> first.size() + second.size() == 10);
+            assertThat(first).hasSize(5);
+            assertThat(second).hasSize(5);
+        }
+    }
+
+    @Timeout(value = 5000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void binary_and_multiplexed_channels_are_routed() throws Exception {
+        try (NioMessageBroker broker = new NioMessageBroker(0);
+             Connection connection = new Connection("localhost", broker.getPort())) {
+            assertThat(connection.open()).isTrue();
+            LogicalChannel subscriber = connection.createChannel();
+            assertThat(subscriber.connect()).isTrue();
+            assertThat(subscriber.exchangeDeclare(ExchangeType.TOPIC, "events")).isTrue();
+            assertThat(subscriber.queueBind("audit", "user.#")).isTrue();
+            BlockingQueue<String> received = new LinkedBlockingQueue<>();
+            assertThat(subscriber.subscribe(received::add)).isNotNull();
+
+            AbstractChannel publisher = new NioChannel("localhost", broker.getPort());
+            publisher.setBinaryFraming(true);
+            connect(publisher);
+            assertThat(publisher.isBinary()).isTrue();
+            assertThat(publisher.exchangeDeclare(ExchangeType.TOPIC, "events")).isTrue();
+            assertThat(publisher.publish("user.created", "id 42")).isTrue();
+            assertThat(publisher.publish("order.created", "id 43")).isTrue();
+            assertThat(publisher.publish("user.deleted", "id 44")).isTrue();
+
+            assertThat(received.poll(1000, MILLISECONDS)).isEqualTo("id 42");
+            assertThat(received.poll(1000, MILLISECONDS)).isEqualTo("id 44");
+            assertThat(broker.getPublishCount()).isEqualTo(3);
+            assertThat(broker.getDeliveryCount()).isEqualTo(2);
+        }
+    }
+
+    @Timeout(value = 20000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+    @Test
+    public void serves_thousands_of_connections() throws Exception {
+        int count = 2000;
+        List<Socket> sockets = new ArrayList<>();
+        try (NioMessageBroker broker = new NioMessageBroker(0)) {
+            try {
+                for (int i = 0; i < count; i++) {
+                    Socket socket = new Socket("localhost", broker.getPort());
+                    sockets.add(socket);
+                }
+                for (Socket socket : sockets) {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    assertThat(in.readLine()).isEqualTo("ok SMQP");
+                }
+                assertThat(broker.getConnectionCount()).isEqualTo(count);
+
+                BlockingQueue<String> received = subscribe(broker, ExchangeType.FANOUT, "load", "load", "any");
+                AbstractChannel publisher = connect(new NioChannel("localhost", broker.getPort()));
+                assertThat(publisher.exchangeDeclare(ExchangeType.FANOUT, "load")).isTrue();
+                assertThat(publisher.publish("any", "still responsive")).isTrue();
+                assertThat(received.poll(1000, MILLISECONDS)).isEqualTo("still responsive");
+            } finally {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+            await().until(() -> broker.getConnectionCount() == 2);
+        }
+    }
+
+    private static BlockingQueue<String> subscribe(NioMessageBroker broker, ExchangeType type, String exchange,
+                                                   String queue, String bindingKey) throws Exception {
+        AbstractChannel channel = connect(new NioChannel("localhost", broker.getPort()));
+        assertThat(channel.exchangeDeclare(type, exchange)).isTrue();
+        assertThat(channel.queueBind(queue, bindingKey)).isTrue();
+
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        assertThat(channel.subscribe(received::add)).isNotNull();
+        return received;
+    }
+
+    private static AbstractChannel connect(AbstractChannel channel) throws Exception {
+        assertThat(channel.connect()).isTrue();
+        return channel;
+    }
+}